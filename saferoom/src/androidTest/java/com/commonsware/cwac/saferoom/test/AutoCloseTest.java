@@ -0,0 +1,302 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.CheckpointMode;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+import com.commonsware.cwac.saferoom.TrimPolicy;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+@RunWith(AndroidJUnit4.class)
+public class AutoCloseTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final long IDLE_MILLIS = 200;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("AutoCloseTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void closesWhenIdleAndReopens() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertTrue(openFiles() > 0);
+        awaitIdleClose();
+        assertTrue(db.isOpen());
+
+        long start = System.nanoTime();
+
+        assertEquals(1, count(db));
+        Log.d("AutoCloseTest", "reopen and query: " + (System.nanoTime() - start) / 1000 + "us");
+        assertTrue(openFiles() > 0);
+
+        // and again, now that the key is the derived one
+        awaitIdleClose();
+        db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{2, "three"});
+        assertEquals(2, count(db));
+
+        helper.close();
+        assertEquals(0, openFiles());
+    }
+
+    @Test
+    public void openCursorKeepsConnection() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+        Cursor c = db.query("SELECT goo FROM foo");
+
+        Thread.sleep(IDLE_MILLIS * 5);
+        assertTrue(openFiles() > 0);
+        assertTrue(c.moveToFirst());
+        assertEquals("two", c.getString(0));
+        c.close();
+        awaitIdleClose();
+
+        helper.close();
+    }
+
+    @Test
+    public void transactionKeepsConnection() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        db.beginTransaction();
+
+        try {
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{2, "three"});
+            Thread.sleep(IDLE_MILLIS * 5);
+            assertTrue(openFiles() > 0);
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{3, "four"});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals(3, count(db));
+        awaitIdleClose();
+
+        helper.close();
+    }
+
+    @Test
+    public void statementSurvivesReopen() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        try (SupportSQLiteStatement insert =
+                     db.compileStatement("INSERT INTO foo (bar, goo) VALUES (?, ?)")) {
+            insert.bindLong(1, 2);
+            insert.bindString(2, "three");
+            insert.executeInsert();
+
+            // the bindings carry over to the statement compiled on the new
+            // connection
+            awaitIdleClose();
+            insert.executeInsert();
+
+            insert.clearBindings();
+            insert.bindLong(1, 3);
+            insert.executeInsert();
+        }
+
+        assertEquals(4, count(db));
+
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo WHERE goo IS NULL")) {
+            c.moveToFirst();
+            assertEquals(1, c.getInt(0));
+        }
+
+        helper.close();
+    }
+
+    @Test
+    public void settingsSurviveReopen() throws Exception {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setAutoClose(IDLE_MILLIS)
+                .setBackgroundCheckpoints(CheckpointMode.PASSIVE, 1024 * 1024, 0)
+                .setTrimPolicy(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+                        TrimPolicy.builder().setCacheSize(-128, 60_000).build())
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        helper.setWriteAheadLoggingEnabled(true);
+
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertEquals(0, pragma(db, "wal_autocheckpoint"));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> ((Application) context.getApplicationContext())
+                        .onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+
+        for (int i = 0; i < 50 && pragma(db, "cache_size") != -128; i++) {
+            Thread.sleep(IDLE_MILLIS / 4);
+        }
+
+        assertEquals(-128, pragma(db, "cache_size"));
+
+        // the new writer still leaves checkpoints to the background, and the
+        // trim holds until its restore time
+        awaitIdleClose();
+        assertEquals(0, pragma(db, "wal_autocheckpoint"));
+        assertEquals(-128, pragma(db, "cache_size"));
+
+        helper.close();
+    }
+
+    @Test
+    public void keyTimeToLiveIsIgnored() throws Exception {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setAutoClose(IDLE_MILLIS)
+                .setDerivedKeyCache(IDLE_MILLIS / 2)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        awaitIdleClose();
+        Thread.sleep(IDLE_MILLIS);
+        assertEquals(1, count(db));
+
+        helper.close();
+    }
+
+    @Test
+    public void walSettingReachesReopenedConnection() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+
+        helper.setWriteAheadLoggingEnabled(true);
+
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        awaitIdleClose();
+        assertEquals(1, count(db));
+
+        helper.setWriteAheadLoggingEnabled(false);
+        assertFalse(db.isWriteAheadLoggingEnabled());
+
+        helper.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeIdleTime() {
+        SafeHelperFactory.Options.builder().setAutoClose(-1);
+    }
+
+    private SupportSQLiteOpenHelper create() {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setAutoClose(IDLE_MILLIS)
+                .setStatementCacheSize(4)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+
+        return factory.create(context, DB_NAME, new Callback(1));
+    }
+
+    private static int pragma(SupportSQLiteDatabase db, String name) {
+        try (Cursor c = db.query("PRAGMA " + name)) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    private void awaitIdleClose() throws Exception {
+        for (int i = 0; i < 50 && openFiles() > 0; i++) {
+            Thread.sleep(IDLE_MILLIS / 2);
+        }
+
+        assertEquals(0, openFiles());
+    }
+
+    /**
+     * @return how many file descriptors this process has open on the
+     * database file
+     */
+    private int openFiles() throws IOException {
+        String path = context.getDatabasePath(DB_NAME).getCanonicalPath();
+        File[] fds = new File("/proc/self/fd").listFiles();
+        int result = 0;
+
+        if (fds != null) {
+            for (File fd : fds) {
+                try {
+                    if (path.equals(fd.getCanonicalPath())) {
+                        result++;
+                    }
+                } catch (IOException e) {
+                    // closed while we looked
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static int count(SupportSQLiteDatabase db) {
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo")) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.BatchInsertResult;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class BatchInsertTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int ROWS = 5000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("BatchInsertTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void insertAll() {
+        SupportSQLiteDatabase db = open();
+        List<ContentValues> rows = new ArrayList<>();
+
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues values = new ContentValues();
+
+            values.put("bar", i);
+
+            // every other row has a second column, so two statements are needed
+            if (i % 2 == 0) {
+                values.put("goo", "row " + i);
+            }
+
+            rows.add(values);
+        }
+
+        BatchInsertResult result =
+                SafeHelperFactory.insertAll(db, "foo", SQLiteDatabase.CONFLICT_NONE, rows);
+
+        Log.d("BatchInsertTest", result.toString());
+
+        long[] rowIds = result.getRowIds();
+
+        assertEquals(ROWS, rowIds.length);
+
+        for (int i = 1; i < ROWS; i++) {
+            assertEquals(rowIds[i - 1] + 1, rowIds[i]);
+        }
+
+        assertTrue(result.getRowsPerSecond() > 0);
+
+        try (Cursor c = db.query("SELECT COUNT(*), COUNT(goo) FROM foo")) {
+            c.moveToFirst();
+            assertEquals(ROWS, c.getInt(0));
+            assertEquals(ROWS / 2, c.getInt(1));
+        }
+
+        db.close();
+    }
+
+    @Test
+    public void rollsBackOnFailure() {
+        SupportSQLiteDatabase db = open();
+        List<ContentValues> rows = new ArrayList<>();
+        ContentValues good = new ContentValues();
+
+        good.put("bar", 1);
+        rows.add(good);
+        rows.add(new ContentValues());
+
+        try {
+            SafeHelperFactory.insertAll(db, "foo", SQLiteDatabase.CONFLICT_NONE, rows);
+        } catch (IllegalArgumentException e) {
+            // expected, for the empty row
+        }
+
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo")) {
+            c.moveToFirst();
+            assertEquals(0, c.getInt(0));
+        }
+
+        db.close();
+    }
+
+    private SupportSQLiteDatabase open() {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE));
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.CheckpointMode;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class CheckpointSchedulerTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("CheckpointSchedulerTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkpointsWhenIdle() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicBoolean busy = new AtomicBoolean(true);
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setBackgroundCheckpoints(CheckpointMode.TRUNCATE, 0, 200)
+                .setCheckpointListener((mode, durationNanos, wasBusy, walFrames, checkpointedFrames) -> {
+                    Log.d("CheckpointSchedulerTest", String.format("%s: %d us, %d of %d frames",
+                            mode, durationNanos / 1000, checkpointedFrames, walFrames));
+                    busy.set(wasBusy);
+                    latch.countDown();
+                })
+                .build();
+        SupportSQLiteDatabase db = open(options);
+        File walFile = new File(db.getPath() + "-wal");
+
+        insertRows(db, 100);
+        assertTrue(walFile.length() > 0);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(busy.get());
+        assertEquals(0, walFile.length());
+
+        db.close();
+    }
+
+    @Test
+    public void checkpointsOnWalSize() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setBackgroundCheckpoints(CheckpointMode.PASSIVE, 64 * 1024, 0)
+                .setCheckpointListener((mode, durationNanos, busy, walFrames, checkpointedFrames) ->
+                        latch.countDown())
+                .build();
+        SupportSQLiteDatabase db = open(options);
+
+        insertRows(db, 2000);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        db.close();
+    }
+
+    @Test
+    public void doesNotCheckpointAgainUntilTheWalRefills() throws InterruptedException {
+        AtomicInteger checkpoints = new AtomicInteger();
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setBackgroundCheckpoints(CheckpointMode.PASSIVE, 1024 * 1024, 0)
+                .setCheckpointListener((mode, durationNanos, busy, walFrames, checkpointedFrames) ->
+                        checkpoints.incrementAndGet())
+                .build();
+        SupportSQLiteDatabase db = open(options);
+
+        for (int i = 0; i < 100 && checkpoints.get() == 0; i++) {
+            insertRows(db, 16);
+            Thread.sleep(10);
+        }
+
+        Thread.sleep(500);
+        assertTrue(checkpoints.get() > 0);
+
+        int afterFirst = checkpoints.get();
+
+        // the log restarts and is truncated on the next commit, so these
+        // few rows are nowhere near the threshold again
+        insertRows(db, 32);
+        Thread.sleep(500);
+        assertEquals(afterFirst, checkpoints.get());
+
+        db.close();
+    }
+
+    private SupportSQLiteDatabase open(SafeHelperFactory.Options options) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        helper.setWriteAheadLoggingEnabled(true);
+
+        return helper.getWritableDatabase();
+    }
+
+    private static void insertRows(SupportSQLiteDatabase db, int count) {
+        for (int i = 0; i < count; i++) {
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)",
+                    new Object[]{i, "a row with enough text to fill up some WAL frames " + i});
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
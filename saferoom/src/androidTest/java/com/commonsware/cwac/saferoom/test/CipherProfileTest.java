@@ -0,0 +1,129 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.CipherProfile;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class CipherProfileTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("CipherProfileTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void throughputPreset() {
+        SupportSQLiteDatabase db = open(CipherProfile.THROUGHPUT);
+
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        assertEquals("wal", pragma(db, "journal_mode"));
+        assertEquals("-8192", pragma(db, "cache_size"));
+        assertEquals("1", pragma(db, "synchronous"));
+        assertEquals("2", pragma(db, "temp_store"));
+
+        db.close();
+    }
+
+    @Test
+    public void cipherSettingsSurviveReopen() {
+        CipherProfile profile = CipherProfile.builder()
+                .setPageSize(8192)
+                .setKdfIterations(10000)
+                .setHmacAlgorithm(CipherProfile.Digest.SHA256)
+                .setKdfAlgorithm(CipherProfile.Digest.SHA256)
+                .build();
+        SupportSQLiteDatabase db = open(profile);
+
+        assertEquals("8192", pragma(db, "cipher_page_size"));
+        assertEquals("10000", pragma(db, "kdf_iter"));
+        db.close();
+
+        db = open(profile);
+        assertEquals("two", firstString(db, "SELECT goo FROM foo"));
+        db.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void mismatchedProfileFails() {
+        open(CipherProfile.builder().setPageSize(8192).build()).close();
+        firstString(open(null), "SELECT goo FROM foo");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPageSize() {
+        CipherProfile.builder().setPageSize(3000);
+    }
+
+    private SupportSQLiteDatabase open(CipherProfile profile) {
+        SafeHelperFactory.Options options =
+                SafeHelperFactory.Options.builder().setCipherProfile(profile).build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    private static String pragma(SupportSQLiteDatabase db, String name) {
+        return firstString(db, "PRAGMA " + name);
+    }
+
+    private static String firstString(SupportSQLiteDatabase db, String sql) {
+        try (Cursor c = db.query(sql)) {
+            c.moveToFirst();
+
+            return c.getString(0);
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
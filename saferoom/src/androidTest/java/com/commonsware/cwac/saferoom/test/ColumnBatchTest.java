@@ -0,0 +1,194 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.ColumnBatch;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class ColumnBatchTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int ROWS = 500_000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("ColumnBatchTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsTypedColumnsInBatches() {
+        SupportSQLiteDatabase db = open();
+
+        db.execSQL("INSERT INTO samples (ts, value, label, payload) VALUES (?, ?, ?, ?)",
+                new Object[]{1, 1.5, "one", new byte[]{1}});
+        db.execSQL("INSERT INTO samples (ts, value, label, payload) VALUES (?, ?, ?, ?)",
+                new Object[]{2, 2.5, null, null});
+        db.execSQL("INSERT INTO samples (ts, value, label, payload) VALUES (?, ?, ?, ?)",
+                new Object[]{3, 3.5, "", new byte[]{3, 3, 3}});
+
+        ColumnBatch batch = new ColumnBatch(2, ColumnBatch.Type.LONG, ColumnBatch.Type.DOUBLE,
+                ColumnBatch.Type.TEXT, ColumnBatch.Type.BLOB);
+        List<Integer> sizes = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        long[] tsSum = new long[1];
+        long read = SafeHelperFactory.readColumns(db,
+                new SimpleSQLiteQuery("SELECT ts, value, label, payload FROM samples ORDER BY ts"),
+                batch, b -> {
+                    sizes.add(b.getRowCount());
+
+                    for (int i = 0; i < b.getRowCount(); i++) {
+                        tsSum[0] += b.getLongs(0)[i];
+                        assertEquals(b.getLongs(0)[i] + 0.5, b.getDoubles(1)[i], 0.0);
+                        labels.add(b.getString(i, 2));
+                    }
+
+                    if (b.getRowCount() == 1) {
+                        int[] offsets = b.getOffsets(3);
+
+                        assertFalse(b.isNull(0, 3));
+                        assertArrayEquals(new byte[]{3, 3, 3},
+                                Arrays.copyOfRange(b.getBytes(3), offsets[0], offsets[1]));
+                    } else {
+                        assertTrue(b.isNull(1, 2));
+                        assertTrue(b.isNull(1, 3));
+                    }
+
+                    return true;
+                });
+
+        assertEquals(3, read);
+        assertEquals(Arrays.asList(2, 1), sizes);
+        assertEquals(6, tsSum[0]);
+        assertEquals(Arrays.asList("one", null, ""), labels);
+        assertEquals(2, SafeHelperFactory.readColumns(db,
+                new SimpleSQLiteQuery("SELECT ts FROM samples"),
+                new ColumnBatch(2, ColumnBatch.Type.LONG), b -> false));
+
+        db.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyColumns() {
+        SupportSQLiteDatabase db = open();
+
+        try {
+            SafeHelperFactory.readColumns(db, new SimpleSQLiteQuery("SELECT ts FROM samples"),
+                    new ColumnBatch(16, ColumnBatch.Type.LONG, ColumnBatch.Type.DOUBLE),
+                    b -> true);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstCursor() {
+        SupportSQLiteDatabase db = open();
+
+        db.execSQL("WITH RECURSIVE seq(x) AS (SELECT 0 UNION ALL SELECT x + 1 FROM seq WHERE x < ?) "
+                        + "INSERT INTO samples (ts, value) SELECT x, x / 4.0 FROM seq",
+                new Object[]{ROWS - 1});
+
+        String sql = "SELECT ts, value FROM samples";
+        long start = System.nanoTime();
+        long cursorTs = 0;
+        double cursorValues = 0;
+
+        try (Cursor c = db.query(sql)) {
+            while (c.moveToNext()) {
+                cursorTs += c.getLong(0);
+                cursorValues += c.getDouble(1);
+            }
+        }
+
+        long cursorNanos = System.nanoTime() - start;
+        ColumnBatch batch = new ColumnBatch(4096, ColumnBatch.Type.LONG, ColumnBatch.Type.DOUBLE);
+        long[] batchTs = new long[1];
+        double[] batchValues = new double[1];
+
+        start = System.nanoTime();
+
+        long read = SafeHelperFactory.readColumns(db, new SimpleSQLiteQuery(sql), batch, b -> {
+            long[] ts = b.getLongs(0);
+            double[] values = b.getDoubles(1);
+
+            for (int i = 0; i < b.getRowCount(); i++) {
+                batchTs[0] += ts[i];
+                batchValues[0] += values[i];
+            }
+
+            return true;
+        });
+
+        long batchNanos = System.nanoTime() - start;
+
+        Log.d("ColumnBatchTest", String.format("%d rows: cursor %d ms, readColumns %d ms",
+                ROWS, cursorNanos / 1_000_000, batchNanos / 1_000_000));
+
+        assertEquals(ROWS, read);
+        assertEquals(cursorTs, batchTs[0]);
+        assertEquals(cursorValues, batchValues[0], 0.0);
+
+        db.close();
+    }
+
+    private SupportSQLiteDatabase open() {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE));
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE samples (ts INTEGER, value REAL, label TEXT, payload BLOB);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.OpenPhase;
+import com.commonsware.cwac.saferoom.OpenTiming;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(AndroidJUnit4.class)
+public class DerivedKeyCacheTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final List<OpenTiming> timings = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("DerivedKeyCacheTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reopenAfterPassphraseCleared() {
+        SupportSQLiteOpenHelper helper = create(60_000, true);
+
+        helper.getWritableDatabase().close();
+
+        // the key was derived during the first open, so the first reopen
+        // already skips derivation
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertEquals("two", firstString(db));
+        db.close();
+
+        long first = openNanos(0);
+        long reopen = openNanos(1);
+
+        Log.d("DerivedKeyCacheTest", String.format("first open %d ms, reopen %d ms",
+                first / 1_000_000, reopen / 1_000_000));
+        assertTrue(reopen < first / 4);
+        assertTrue(timings.get(0).getNanos(OpenPhase.KEY_DERIVATION) > 0);
+        assertEquals(0, timings.get(1).getNanos(OpenPhase.KEY_DERIVATION));
+
+        helper.close();
+    }
+
+    @Test
+    public void reopenWithPassphraseKept() throws InterruptedException {
+        SupportSQLiteOpenHelper helper = create(60_000, false);
+
+        helper.getWritableDatabase().close();
+
+        // works straight away, from the passphrase copy, and then from the
+        // derived key once the background derivation finishes
+        for (int i = 0; i < 20; i++) {
+            SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+            assertEquals("two", firstString(db));
+            db.close();
+
+            if (openNanos(timings.size() - 1) < openNanos(0) / 4) {
+                break;
+            }
+
+            Thread.sleep(250);
+        }
+
+        assertTrue(openNanos(timings.size() - 1) < openNanos(0) / 4);
+
+        helper.close();
+    }
+
+    @Test
+    public void reopenWithRawKey() {
+        byte[] key = new byte[32];
+
+        new SecureRandom().nextBytes(key);
+
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setDerivedKeyCache(60_000)
+                .build();
+        SupportSQLiteOpenHelper helper = SafeHelperFactory.fromRawKey(key, null, options)
+                .create(context, DB_NAME, new Callback(1));
+
+        helper.getWritableDatabase().close();
+
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertEquals("two", firstString(db));
+        helper.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void helperCloseWipesKey() {
+        SupportSQLiteOpenHelper helper = create(60_000, true);
+
+        helper.getWritableDatabase();
+        helper.close();
+        helper.getWritableDatabase();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void keyExpires() throws InterruptedException {
+        SupportSQLiteOpenHelper helper = create(100, true);
+
+        helper.getWritableDatabase().close();
+        Thread.sleep(1000);
+        helper.getWritableDatabase();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeTtl() {
+        SafeHelperFactory.Options.builder().setDerivedKeyCache(-1);
+    }
+
+    private SupportSQLiteOpenHelper create(long ttlMillis, boolean clearPassphrase) {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setDerivedKeyCache(ttlMillis)
+                .setClearPassphrase(clearPassphrase)
+                .setOpenTrace(timings::add)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+
+        return factory.create(context, DB_NAME, new Callback(1));
+    }
+
+    private long openNanos(int index) {
+        return timings.get(index).getTotalNanos();
+    }
+
+    private static String firstString(SupportSQLiteDatabase db) {
+        try (Cursor c = db.query("SELECT goo FROM foo")) {
+            c.moveToFirst();
+
+            return c.getString(0);
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
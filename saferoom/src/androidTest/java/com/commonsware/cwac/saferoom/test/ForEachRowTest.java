@@ -0,0 +1,135 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class ForEachRowTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    // enough rows that the cursor refills its window along the way
+    private static final int ROWS = 100_000;
+    private static final String SCAN_SQL = "SELECT bar, goo FROM foo";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("ForEachRowTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void visitsRowsWithTypedAccessors() {
+        SupportSQLiteDatabase db = open();
+
+        insertRows(db, 10);
+
+        long[] sum = new long[1];
+        long visited = SafeHelperFactory.forEachRow(db,
+                new SimpleSQLiteQuery("SELECT bar, goo FROM foo WHERE bar < ? ORDER BY bar",
+                        new Object[]{5}),
+                row -> {
+                    assertEquals(2, row.getColumnCount());
+                    assertEquals("goo", row.getColumnName(1));
+                    assertEquals("row " + row.getLong(0), row.getString(1));
+                    sum[0] += row.getLong(0);
+
+                    return true;
+                });
+
+        assertEquals(5, visited);
+        assertEquals(0 + 1 + 2 + 3 + 4, sum[0]);
+        assertEquals(3, SafeHelperFactory.forEachRow(db, new SimpleSQLiteQuery(SCAN_SQL),
+                row -> row.getLong(0) < 2));
+
+        db.close();
+    }
+
+    @Test
+    public void matchesCursorLoop() {
+        SupportSQLiteDatabase db = open();
+
+        insertRows(db, ROWS);
+
+        long cursorSum = 0;
+
+        try (Cursor c = db.query(SCAN_SQL)) {
+            while (c.moveToNext()) {
+                cursorSum += c.getLong(0) + c.getString(1).length();
+            }
+        }
+
+        long[] visitorSum = new long[1];
+        long visited = SafeHelperFactory.forEachRow(db, new SimpleSQLiteQuery(SCAN_SQL), row -> {
+            visitorSum[0] += row.getLong(0) + row.getString(1).length();
+
+            return true;
+        });
+
+        assertEquals(ROWS, visited);
+        assertEquals(cursorSum, visitorSum[0]);
+        assertTrue(visitorSum[0] > 0);
+
+        db.close();
+    }
+
+    private static void insertRows(SupportSQLiteDatabase db, int count) {
+        db.execSQL("WITH RECURSIVE seq(x) AS (SELECT 0 UNION ALL SELECT x + 1 FROM seq WHERE x < ?) "
+                + "INSERT INTO foo (bar, goo) SELECT x, 'row ' || x FROM seq",
+                new Object[]{count - 1});
+    }
+
+    private SupportSQLiteDatabase open() {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE));
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
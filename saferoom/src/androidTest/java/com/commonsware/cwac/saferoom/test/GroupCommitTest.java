@@ -0,0 +1,260 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class GroupCommitTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int THREADS = 8;
+    private static final int WRITES_PER_THREAD = 50;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("GroupCommitTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void concurrentWrites() throws Exception {
+        SupportSQLiteDatabase db = open(2, 64);
+        long groupNanos = writeConcurrently(db, true);
+        long plainNanos = writeConcurrently(db, false);
+
+        Log.d("GroupCommitTest", String.format("group commit: %d ms, one transaction each: %d ms",
+                groupNanos / 1_000_000, plainNanos / 1_000_000));
+
+        assertEquals(2 * THREADS * WRITES_PER_THREAD, count(db));
+
+        db.close();
+    }
+
+    @Test
+    public void failedWriteDoesNotSinkBatch() throws Exception {
+        SupportSQLiteDatabase db = open(50, 64);
+        Future<Long> before = SafeHelperFactory.submitWrite(db, this::insertRow);
+        Future<Long> failing = SafeHelperFactory.submitWrite(db, d -> {
+            insertRow(d);
+            throw new IllegalStateException("boom");
+        });
+        Future<Long> after = SafeHelperFactory.submitWrite(db, this::insertRow);
+
+        assertTrue(before.get(10, TimeUnit.SECONDS) > 0);
+        assertTrue(after.get(10, TimeUnit.SECONDS) > 0);
+
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail("expected the write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(2, count(db));
+
+        db.close();
+    }
+
+    @Test
+    public void errorFailsOnlyThatWrite() throws Exception {
+        SupportSQLiteDatabase db = open(50, 64);
+        Future<Long> failing = SafeHelperFactory.submitWrite(db, d -> {
+            insertRow(d);
+            throw new AssertionError("boom");
+        });
+        Future<Long> after = SafeHelperFactory.submitWrite(db, this::insertRow);
+
+        assertTrue(after.get(10, TimeUnit.SECONDS) > 0);
+
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail("expected the write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+
+        assertEquals(1, count(db));
+
+        db.close();
+    }
+
+    @Test
+    public void swallowedNestedFailureDoesNotSinkBatch() throws Exception {
+        SupportSQLiteDatabase db = open(50, 64);
+        Future<Long> before = SafeHelperFactory.submitWrite(db, this::insertRow);
+        Future<Long> swallowing = SafeHelperFactory.submitWrite(db, d -> {
+            d.beginTransaction();
+
+            try {
+                insertRow(d);
+                // like a DAO method that threw, with its exception caught
+            } finally {
+                d.endTransaction();
+            }
+
+            return 0L;
+        });
+        Future<Long> after = SafeHelperFactory.submitWrite(db, this::insertRow);
+
+        assertTrue(before.get(10, TimeUnit.SECONDS) > 0);
+        assertTrue(after.get(10, TimeUnit.SECONDS) > 0);
+
+        try {
+            swallowing.get(10, TimeUnit.SECONDS);
+            fail("expected the write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(2, count(db));
+
+        db.close();
+    }
+
+    @Test
+    public void waitingInsideTransactionThrows() throws Exception {
+        SupportSQLiteDatabase db = open(50, 64);
+
+        db.beginTransaction();
+
+        try {
+            SafeHelperFactory.submitWrite(db, this::insertRow).get();
+            fail("expected the wait to be refused");
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            db.endTransaction();
+        }
+
+        db.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void disabledByDefault() {
+        SupportSQLiteDatabase db = open(0, 0);
+
+        try {
+            SafeHelperFactory.submitWrite(db, this::insertRow);
+        } finally {
+            db.close();
+        }
+    }
+
+    private long writeConcurrently(SupportSQLiteDatabase db, boolean groupCommit)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                    if (groupCommit) {
+                        SafeHelperFactory.submitWrite(db, this::insertRow).get();
+                    } else {
+                        db.beginTransaction();
+
+                        try {
+                            insertRow(db);
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<?> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+
+        return System.nanoTime() - start;
+    }
+
+    private long insertRow(SupportSQLiteDatabase db) {
+        try (SupportSQLiteStatement statement =
+                     db.compileStatement("INSERT INTO foo (bar) VALUES (1)")) {
+            return statement.executeInsert();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int count(SupportSQLiteDatabase db) {
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo")) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    private SupportSQLiteDatabase open(long windowMillis, int maxBatch) {
+        SafeHelperFactory.Options options =
+                SafeHelperFactory.Options.builder().setGroupCommit(windowMillis, maxBatch).build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
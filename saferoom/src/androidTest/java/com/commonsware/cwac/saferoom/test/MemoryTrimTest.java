@@ -0,0 +1,221 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+import com.commonsware.cwac.saferoom.TrimListener;
+import com.commonsware.cwac.saferoom.TrimPolicy;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class MemoryTrimTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final long RESTORE_MILLIS = 300;
+    private static final TrimPolicy SMALL_CACHE = TrimPolicy.EVICT.toBuilder()
+            .setCacheSize(-128, RESTORE_MILLIS)
+            .build();
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final BlockingQueue<Trim> trims = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("MemoryTrimTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void appliesPolicyForLevel() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+        int original = cacheSize(db);
+
+        // leave an idle statement in the cache
+        try (SupportSQLiteStatement insert =
+                     db.compileStatement("INSERT INTO foo (bar, goo) VALUES (?, ?)")) {
+            insert.bindLong(1, 2);
+            insert.bindString(2, "three");
+            insert.executeInsert();
+        }
+
+        assertEquals(1, SafeHelperFactory.getStatementCache(db).size());
+
+        // MODERATE falls between BACKGROUND and COMPLETE
+        dispatch(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        Trim trim = trims.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(ComponentCallbacks2.TRIM_MEMORY_MODERATE, trim.level);
+        assertSame(SMALL_CACHE, trim.policy);
+        assertTrue(trim.nativeHeapDelta >= 0);
+        Log.d("MemoryTrimTest", "native heap shrank by " + trim.nativeHeapDelta + " bytes in "
+                + trim.durationNanos / 1000 + "us");
+        assertEquals(0, SafeHelperFactory.getStatementCache(db).size());
+        assertEquals(-128, cacheSize(db));
+
+        for (int i = 0; i < 50 && cacheSize(db) != original; i++) {
+            Thread.sleep(RESTORE_MILLIS / 2);
+        }
+
+        assertEquals(original, cacheSize(db));
+        assertEquals(2, count(db));
+
+        helper.close();
+    }
+
+    @Test
+    public void lowMemoryCountsAsComplete() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+
+        helper.getWritableDatabase();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> ((Application) context.getApplicationContext()).onLowMemory());
+
+        Trim trim = trims.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, trim.level);
+        assertSame(SMALL_CACHE, trim.policy);
+
+        helper.close();
+    }
+
+    @Test
+    public void ignoresLevelsBelowPolicies() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+
+        helper.getWritableDatabase();
+        dispatch(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(null, trims.poll(500, TimeUnit.MILLISECONDS));
+
+        dispatch(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertSame(TrimPolicy.SHRINK, trims.poll(5, TimeUnit.SECONDS).policy);
+
+        helper.close();
+    }
+
+    @Test
+    public void closeStopsTrimming() throws Exception {
+        SupportSQLiteOpenHelper helper = create();
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        helper.close();
+        assertFalse(db.isOpen());
+        dispatch(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(null, trims.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCacheSize() {
+        TrimPolicy.builder().setCacheSize(0, 1000);
+    }
+
+    private SupportSQLiteOpenHelper create() {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setStatementCacheSize(4)
+                .setTrimPolicy(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, TrimPolicy.SHRINK)
+                .setTrimPolicy(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, SMALL_CACHE)
+                .setTrimListener(new TrimListener() {
+                    @Override
+                    public void onTrim(int level, TrimPolicy policy, long nativeHeapDelta,
+                                       long durationNanos) {
+                        trims.add(new Trim(level, policy, nativeHeapDelta, durationNanos));
+                    }
+                })
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+
+        return factory.create(context, DB_NAME, new Callback(1));
+    }
+
+    /**
+     * Hands the trim level to the callbacks registered on the application,
+     * as the system would
+     */
+    private void dispatch(int level) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> ((Application) context.getApplicationContext()).onTrimMemory(level));
+    }
+
+    private static int cacheSize(SupportSQLiteDatabase db) {
+        try (Cursor c = db.query("PRAGMA cache_size")) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    private static int count(SupportSQLiteDatabase db) {
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo")) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    private static final class Trim {
+        final int level;
+        final TrimPolicy policy;
+        final long nativeHeapDelta;
+        final long durationNanos;
+
+        Trim(int level, TrimPolicy policy, long nativeHeapDelta, long durationNanos) {
+            this.level = level;
+            this.policy = policy;
+            this.nativeHeapDelta = nativeHeapDelta;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
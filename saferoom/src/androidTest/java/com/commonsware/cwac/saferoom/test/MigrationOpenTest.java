@@ -0,0 +1,114 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class MigrationOpenTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("MigrationOpenTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void upgradeThenOpenOnSameConnection() {
+        Callback v1 = new Callback(1);
+
+        open(v1).close();
+
+        long start = System.nanoTime();
+        Callback plain = new Callback(1);
+        SupportSQLiteDatabase db = open(plain);
+        long plainNanos = System.nanoTime() - start;
+
+        db.close();
+
+        start = System.nanoTime();
+        Callback v2 = new Callback(2);
+        db = open(v2);
+        long migratedNanos = System.nanoTime() - start;
+
+        Log.d("MigrationOpenTest", String.format("plain open: %d ms, migrating open: %d ms",
+                plainNanos / 1_000_000, migratedNanos / 1_000_000));
+
+        assertEquals(1, v2.upgrades);
+        assertEquals(1, v2.opens);
+        assertEquals(2, db.getVersion());
+
+        try (Cursor c = db.query("SELECT goo, extra FROM foo")) {
+            c.moveToFirst();
+            assertEquals("two", c.getString(0));
+            assertEquals("added", c.getString(1));
+        }
+
+        db.close();
+    }
+
+    private SupportSQLiteDatabase open(Callback callback) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE));
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, callback);
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        int upgrades;
+        int opens;
+
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+            upgrades++;
+            db.execSQL("ALTER TABLE foo ADD COLUMN extra TEXT DEFAULT 'added'");
+        }
+
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            opens++;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class OpenAsyncTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("OpenAsyncTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getWritableDatabaseJoinsAsyncOpen() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Callback callback = new Callback(1);
+        SupportSQLiteOpenHelper helper = createHelper(callback);
+
+        try {
+            long start = System.nanoTime();
+            Future<SupportSQLiteDatabase> future = SafeHelperFactory.openAsync(helper, executor);
+            long submitNanos = System.nanoTime() - start;
+
+            assertSame(future, SafeHelperFactory.openAsync(helper, executor));
+
+            SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+            assertSame(db, future.get(30, TimeUnit.SECONDS));
+            assertEquals(1, callback.creates.get());
+            assertEquals(1, callback.opens.get());
+
+            Log.d("OpenAsyncTest", String.format("openAsync() returned in %d us",
+                    submitNanos / 1000));
+
+            db.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void joinRunsOpenIfExecutorHasNotStarted() throws Exception {
+        Callback callback = new Callback(1);
+        SupportSQLiteOpenHelper helper = createHelper(callback);
+
+        // an executor that never runs anything, as if it were saturated
+        Future<SupportSQLiteDatabase> future =
+                SafeHelperFactory.openAsync(helper, runnable -> { });
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertTrue(future.isDone());
+        assertSame(db, future.get());
+        assertEquals(1, callback.creates.get());
+
+        db.close();
+    }
+
+    private SupportSQLiteOpenHelper createHelper(Callback callback) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE));
+
+        return factory.create(context, DB_NAME, callback);
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        final AtomicInteger creates = new AtomicInteger();
+        final AtomicInteger opens = new AtomicInteger();
+
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            creates.incrementAndGet();
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            opens.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class OpenContentionTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int CALLS_PER_THREAD = 100_000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("OpenContentionTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void concurrentGetWritableDatabase() throws InterruptedException {
+        SafeHelperFactory factory = SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE),
+                SafeHelperFactory.Options.builder().setClearPassphrase(false).build());
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+        SupportSQLiteDatabase first = helper.getWritableDatabase();
+        int threadCount = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < CALLS_PER_THREAD; j++) {
+                    if (helper.getWritableDatabase() != first) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        Log.d("OpenContentionTest", String.format("%d threads: %d ns/call", threadCount,
+                elapsed / ((long) threadCount * CALLS_PER_THREAD)));
+        assertEquals(0, mismatches.get());
+
+        // the fast path must not hand out a database after it was closed
+        first.close();
+
+        SupportSQLiteDatabase second = helper.getWritableDatabase();
+
+        assertNotSame(first, second);
+        assertSame(second, helper.getWritableDatabase());
+        helper.close();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
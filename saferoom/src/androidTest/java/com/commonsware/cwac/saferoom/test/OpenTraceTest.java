@@ -0,0 +1,98 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.OpenPhase;
+import com.commonsware.cwac.saferoom.OpenTiming;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class OpenTraceTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("OpenTraceTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reportsEachOpen() {
+        List<OpenTiming> timings = new ArrayList<>();
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setClearPassphrase(false)
+                .setOpenTrace(timings::add)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+
+        factory.create(context, DB_NAME, new Callback(1)).getWritableDatabase().close();
+        factory.create(context, DB_NAME, new Callback(1)).getWritableDatabase().close();
+
+        assertEquals(2, timings.size());
+
+        for (OpenTiming timing : timings) {
+            Log.d("OpenTraceTest", timing.toString());
+
+            long sum = 0;
+
+            for (OpenPhase phase : OpenPhase.values()) {
+                sum += timing.getNanos(phase);
+            }
+
+            assertEquals(DB_NAME, timing.getDatabaseName());
+            assertTrue(timing.getNanos(OpenPhase.OPEN_DATABASE) > 0);
+            assertTrue(timing.getTotalNanos() >= sum);
+        }
+
+        assertTrue(timings.get(0).getNanos(OpenPhase.CREATE_OR_MIGRATE) > 0);
+        assertEquals(0, timings.get(0).getNanos(OpenPhase.READER_POOL));
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.commonsware.cwac.saferoom.SafeRoom;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class PreloadTest {
+    @Test
+    public void preloadOnce() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<SafeRoom.PreloadResult> first = SafeRoom.preload(executor);
+            SafeRoom.PreloadResult result = first.get(30, TimeUnit.SECONDS);
+
+            Log.d("PreloadTest", result.toString());
+
+            assertTrue(result.getLoadNanos() >= 0);
+            assertTrue(result.getSelfTestNanos() > 0);
+            assertNotNull(result.getCipherVersion());
+            assertSame(first, SafeRoom.preload(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Debug;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class QueryBindingTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final byte[] BLOB = {0, 1, 2, 3, (byte) 0xFF};
+    private static final int ITERATIONS = 1000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private SupportSQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE));
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        db = helper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+
+        File dbFile = context.getDatabasePath(DB_NAME);
+        File parentDir = dbFile.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("QueryBindingTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void typedArguments() {
+        try (Cursor c = db.query("SELECT text FROM foo WHERE whole = ? AND real = ? AND data = ?",
+                new Object[]{42L, 3.5d, BLOB})) {
+            assertEquals(1, c.getCount());
+            assertTrue(c.moveToFirst());
+            assertEquals("forty-two", c.getString(0));
+        }
+
+        try (Cursor c = db.query("SELECT whole FROM foo WHERE text = ? AND extra IS ?",
+                new Object[]{"forty-two", null})) {
+            assertEquals(1, c.getCount());
+            assertTrue(c.moveToFirst());
+            assertEquals(42L, c.getLong(0));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void allocationsPerQuery() {
+        SimpleSQLiteQuery query = new SimpleSQLiteQuery(
+                "SELECT text FROM foo WHERE whole = ? AND real = ? AND data = ?",
+                new Object[]{42L, 3.5d, BLOB});
+
+        // warm up the connection's statement cache before measuring
+        for (int i = 0; i < 50; i++) {
+            try (Cursor c = db.query(query)) {
+                c.moveToFirst();
+            }
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            try (Cursor c = db.query(query)) {
+                assertTrue(c.moveToFirst());
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        Debug.stopAllocCounting();
+
+        Log.d("QueryBindingTest", String.format("%d ns/query, %d allocations/query",
+                elapsed / ITERATIONS, Debug.getThreadAllocCount() / ITERATIONS));
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (whole INTEGER, real REAL, text TEXT, data BLOB, extra);");
+            db.execSQL("INSERT INTO foo (whole, real, text, data, extra) VALUES (?, ?, ?, ?, NULL)",
+                    new Object[]{42L, 3.5d, "forty-two", BLOB});
+            db.execSQL("INSERT INTO foo (whole, real, text, data, extra) VALUES (?, ?, ?, ?, NULL)",
+                    new Object[]{43L, 3.5d, "forty-three", new byte[]{9}});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class QueryCancellationTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final String ENDLESS =
+            "WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c) SELECT x FROM c";
+    // enough rows that the cursor has to refill its window to reach the end
+    private static final String LARGE = "WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL "
+            + "SELECT x + 1 FROM c WHERE x < 100000) SELECT x, zeroblob(100) FROM c";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private SupportSQLiteDatabase db;
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+
+        File dbFile = context.getDatabasePath(DB_NAME);
+        File parentDir = dbFile.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("QueryCancellationTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void alreadyCancelled() {
+        db = open(SafeHelperFactory.Options.builder().build());
+
+        CancellationSignal signal = new CancellationSignal();
+
+        signal.cancel();
+        db.query(new SimpleSQLiteQuery(ENDLESS), signal).getCount();
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void cancelledWhileStepping() {
+        db = open(SafeHelperFactory.Options.builder().build());
+
+        CancellationSignal signal = new CancellationSignal();
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(250);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            signal.cancel();
+        }).start();
+
+        db.query(new SimpleSQLiteQuery(ENDLESS), signal).getCount();
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void databaseTimeout() {
+        db = open(SafeHelperFactory.Options.builder().setQueryTimeout(250).build());
+        db.query(ENDLESS);
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void queryTimeout() {
+        db = open(SafeHelperFactory.Options.builder().build());
+        db.query(SafeHelperFactory.withTimeout(new SimpleSQLiteQuery(ENDLESS), 250));
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void cancelledBeforeRefillWithTimeout() {
+        db = open(SafeHelperFactory.Options.builder().setQueryTimeout(30000).build());
+
+        CancellationSignal signal = new CancellationSignal();
+
+        try (Cursor c = db.query(new SimpleSQLiteQuery(LARGE), signal)) {
+            signal.cancel();
+            c.moveToLast();
+        }
+    }
+
+    @Test
+    public void fastQueryWithinTimeout() {
+        db = open(SafeHelperFactory.Options.builder().setQueryTimeout(5000).build());
+
+        try (Cursor c = db.query("SELECT bar FROM foo")) {
+            assertEquals(1, c.getCount());
+        }
+    }
+
+    private SupportSQLiteDatabase open(SafeHelperFactory.Options options) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.QueryMetrics;
+import com.commonsware.cwac.saferoom.QueryStats;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+public class QueryMetricsTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("QueryMetricsTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void groupsByFingerprint() throws Exception {
+        SupportSQLiteDatabase db = open(true);
+
+        try (SupportSQLiteStatement statement =
+                     db.compileStatement("INSERT INTO foo (bar, goo) VALUES (?, ?)")) {
+            for (int i = 0; i < 10; i++) {
+                statement.bindLong(1, i);
+                statement.bindString(2, "row " + i);
+                statement.executeInsert();
+            }
+        }
+
+        query(db, "SELECT goo FROM foo WHERE bar IN (1, 2)");
+        query(db, "SELECT goo FROM foo WHERE bar IN (3,4,5)");
+        query(db, "SELECT goo  FROM foo WHERE bar IN (6) -- one");
+
+        Map<String, QueryStats> stats = new HashMap<>();
+
+        for (QueryStats entry : SafeHelperFactory.getQueryMetrics(db).snapshot()) {
+            Log.d("QueryMetricsTest", entry.toString());
+            stats.put(entry.getFingerprint(), entry);
+        }
+
+        QueryStats inserts = stats.get("INSERT INTO foo(bar, goo) VALUES(?, ?)");
+        QueryStats selects = stats.get("SELECT goo FROM foo WHERE bar IN(?)");
+
+        assertNotNull(inserts);
+        assertEquals(10, inserts.getCount());
+        assertNotNull(selects);
+        assertEquals(3, selects.getCount());
+        assertTrue(selects.getTotalNanos() > 0);
+        assertTrue(selects.getPercentileNanos(99) >= selects.getPercentileNanos(50));
+
+        QueryMetrics metrics = SafeHelperFactory.getQueryMetrics(db);
+
+        metrics.reset();
+
+        for (QueryStats entry : metrics.snapshot()) {
+            assertEquals(0, entry.getCount());
+        }
+
+        db.close();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        SupportSQLiteDatabase db = open(false);
+
+        assertNull(SafeHelperFactory.getQueryMetrics(db));
+
+        db.close();
+    }
+
+    private SupportSQLiteDatabase open(boolean metrics) {
+        SafeHelperFactory.Options options =
+                SafeHelperFactory.Options.builder().setQueryMetricsEnabled(metrics).build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    private static void query(SupportSQLiteDatabase db, String sql) {
+        try (Cursor c = db.query(sql)) {
+            assertTrue(c.getCount() > 0);
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.security.SecureRandom;
+
+@RunWith(AndroidJUnit4.class)
+public class RawKeyTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int ITERATIONS = 5;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("RawKeyTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reopenWithRawKey() {
+        byte[] key = newKey(32);
+        byte[] salt = newKey(16);
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder().build();
+        SupportSQLiteDatabase db =
+                open(SafeHelperFactory.fromRawKey(key.clone(), salt, options));
+
+        db.close();
+
+        db = open(SafeHelperFactory.fromRawKey(key));
+
+        try (Cursor c = db.query("SELECT goo FROM foo")) {
+            c.moveToFirst();
+            assertEquals("two", c.getString(0));
+        }
+
+        db.close();
+
+        assertArrayEquals(new byte[32], key);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void wrongRawKey() {
+        open(SafeHelperFactory.fromRawKey(newKey(32))).close();
+        open(SafeHelperFactory.fromRawKey(newKey(32))).close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortRawKey() {
+        SafeHelperFactory.fromRawKey(newKey(16));
+    }
+
+    @Test
+    public void openLatency() {
+        byte[] key = newKey(32);
+        SafeHelperFactory.Options options =
+                SafeHelperFactory.Options.builder().setClearPassphrase(false).build();
+        SafeHelperFactory rawFactory = SafeHelperFactory.fromRawKey(key, null, options);
+        SafeHelperFactory passphraseFactory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+
+        open(rawFactory).close();
+
+        long rawNanos = timeOpens(rawFactory);
+
+        tearDown();
+        open(passphraseFactory).close();
+
+        long passphraseNanos = timeOpens(passphraseFactory);
+
+        Log.d("RawKeyTest", String.format("passphrase open: %d ms, raw key open: %d ms",
+                passphraseNanos / ITERATIONS / 1_000_000, rawNanos / ITERATIONS / 1_000_000));
+    }
+
+    private long timeOpens(SafeHelperFactory factory) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            open(factory).close();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private SupportSQLiteDatabase open(SafeHelperFactory factory) {
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    private static byte[] newKey(int length) {
+        byte[] result = new byte[length];
+
+        new SecureRandom().nextBytes(result);
+
+        return result;
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class ReaderPoolTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int ROWS = 2000;
+    private static final int QUERIES_PER_THREAD = 200;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private SupportSQLiteDatabase db;
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+
+        File dbFile = context.getDatabasePath(DB_NAME);
+        File parentDir = dbFile.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("ReaderPoolTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsSeeCommittedAndOwnWrites() {
+        db = open(2);
+
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        assertEquals(ROWS, count());
+
+        db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{-1, "committed"});
+        assertEquals(ROWS + 1, count());
+
+        db.beginTransaction();
+        try {
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{-2, "pending"});
+            assertEquals(ROWS + 2, count());
+        } finally {
+            db.endTransaction();
+        }
+
+        assertEquals(ROWS + 1, count());
+    }
+
+    @Test
+    public void writesAndPragmasGoToTheWriter() {
+        db = open(2);
+
+        // a read-only reader would fail to write the header
+        try (Cursor c = db.query("PRAGMA user_version = 7")) {
+            c.moveToFirst();
+        }
+
+        assertEquals(7, db.getVersion());
+
+        try (Cursor c = db.query("INSERT INTO foo (bar, goo) VALUES (-3, 'returned') RETURNING bar")) {
+            assertTrue(c.moveToFirst());
+            assertEquals(-3, c.getInt(0));
+        }
+
+        try (Cursor c = db.query("PRAGMA wal_checkpoint(PASSIVE)")) {
+            assertTrue(c.moveToFirst());
+            assertEquals(0, c.getInt(0));
+        }
+
+        assertEquals(ROWS + 1, count());
+    }
+
+    @Test
+    public void throughput() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        assumeTrue(cores > 1);
+
+        db = open(1);
+        long single = run(cores);
+        db.close();
+
+        db = open(cores);
+        long parallel = run(cores);
+
+        Log.d("ReaderPoolTest", String.format("%d threads, 1 reader: %d queries/s, %d readers: %d queries/s",
+                cores, single, cores, parallel));
+
+        // one reader runs the queries one at a time, so a reader per thread
+        // should clearly beat it
+        assertTrue(String.format("%d readers: %d queries/s, 1 reader: %d queries/s",
+                cores, parallel, single), parallel > single * 3 / 2);
+    }
+
+    private long run(int threadCount) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < QUERIES_PER_THREAD; j++) {
+                    if (sum() != (long) ROWS * (ROWS - 1) / 2) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(0, failures.get());
+
+        return (long) threadCount * QUERIES_PER_THREAD * 1_000_000_000L / elapsed;
+    }
+
+    private int count() {
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo")) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    private long sum() {
+        try (Cursor c = db.query("SELECT SUM(bar) FROM foo WHERE bar >= 0")) {
+            c.moveToFirst();
+
+            return c.getLong(0);
+        }
+    }
+
+    private SupportSQLiteDatabase open(int readers) {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setReaderPoolSize(readers)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        helper.setWriteAheadLoggingEnabled(true);
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < ROWS; i++) {
+                    db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{i, "row" + i});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
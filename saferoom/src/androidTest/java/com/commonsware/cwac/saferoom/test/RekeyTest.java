@@ -1,6 +1,7 @@
 package com.commonsware.cwac.saferoom.test;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNotNull;
 import static junit.framework.TestCase.assertTrue;
 
@@ -28,6 +29,7 @@ import java.io.IOException;
 @RunWith(AndroidJUnit4.class)
 public class RekeyTest {
     private static final String DB_NAME = "db";
+    private static final int READERS = 2;
     private static final String PASSPHRASE = "Call me Ishmael. Some years ago—never mind how long precisely—having little or no money in my purse, and nothing particular to interest me on shore, I thought I would sail about a little and see the watery part of the world. It is a way I have of driving off the spleen and regulating the circulation. Whenever I find myself growing grim about the mouth; whenever it is a damp, drizzly November in my soul; whenever I find myself involuntarily pausing before coffin warehouses, and bringing up the rear of every funeral I meet; and especially whenever my hypos get such an upper hand of me, that it requires a strong moral principle to prevent me from deliberately stepping into the street, and methodically knocking people’s hats off—then, I account it high time to get to sea as soon as I can. This is my substitute for pistol and ball. With a philosophical flourish Cato throws himself upon his sword; I quietly take to the ship. There is nothing surprising in this. If they but knew it, almost all men in their degree, some time or other, cherish very nearly the same feelings towards the ocean with me.";
     private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
 
@@ -39,11 +41,13 @@ public class RekeyTest {
             boolean deleted = db.delete();
             Log.d("RekeyTest", "Deleted " + db.getAbsolutePath() + ": " + deleted);
         }
-        File journal = new File(db.getParentFile(), DB_NAME + "-journal");
-        if (journal.exists()) {
-            // Ignore delete failures in test cleanup
-            boolean deleted = journal.delete();
-            Log.d("RekeyTest", "Deleted " + journal.getAbsolutePath() + ": " + deleted);
+        for (String suffix : new String[]{"-journal", "-wal", "-shm"}) {
+            File journal = new File(db.getParentFile(), DB_NAME + suffix);
+            if (journal.exists()) {
+                // Ignore delete failures in test cleanup
+                boolean deleted = journal.delete();
+                Log.d("RekeyTest", "Deleted " + journal.getAbsolutePath() + ": " + deleted);
+            }
         }
     }
 
@@ -85,6 +89,52 @@ public class RekeyTest {
         assertUpdatedContent(db);
     }
 
+    @Test
+    public void rekeyWithReaderPool() {
+        SupportSQLiteOpenHelper helper = openWithReaders("sekrit");
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        assertOriginalContent(db);
+        SafeHelperFactory.rekey(db, PASSPHRASE.toCharArray());
+
+        // enough reads to go through every reader, each of which must now
+        // be keyed with the new passphrase
+        for (int i = 0; i < READERS * 2; i++) {
+            assertOriginalContent(db);
+        }
+
+        db.execSQL("UPDATE foo SET bar=?, goo=?", new Object[]{3, "four"});
+        assertUpdatedContent(db);
+        db.close();
+
+        helper = openWithReaders(PASSPHRASE);
+        db = helper.getWritableDatabase();
+        assertUpdatedContent(db);
+        db.close();
+    }
+
+    @Test
+    public void disableWalWithReaderPool() {
+        SupportSQLiteOpenHelper helper = openWithReaders("sekrit");
+        SupportSQLiteDatabase db = helper.getWritableDatabase();
+
+        assertOriginalContent(db);
+        db.disableWriteAheadLogging();
+        assertFalse(db.isWriteAheadLoggingEnabled());
+
+        for (int i = 0; i < READERS * 2; i++) {
+            assertOriginalContent(db);
+        }
+
+        helper.setWriteAheadLoggingEnabled(true);
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        helper.setWriteAheadLoggingEnabled(false);
+        assertFalse(db.isWriteAheadLoggingEnabled());
+        assertOriginalContent(db);
+        db.close();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void rekeyEditableFramework() throws IOException {
         FrameworkSQLiteOpenHelperFactory factory = new FrameworkSQLiteOpenHelperFactory();
@@ -114,6 +164,19 @@ public class RekeyTest {
         }
     }
 
+    private SupportSQLiteOpenHelper openWithReaders(String passphrase) {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setReaderPoolSize(READERS)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(passphrase), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        helper.setWriteAheadLoggingEnabled(true);
+
+        return helper;
+    }
+
     private void assertOriginalContent(SupportSQLiteDatabase db) {
         Cursor c = db.query("SELECT bar, goo FROM foo;");
 
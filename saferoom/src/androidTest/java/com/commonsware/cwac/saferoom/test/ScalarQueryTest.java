@@ -0,0 +1,196 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDoneException;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class ScalarQueryTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int CALLS = 20_000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("ScalarQueryTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void returnsValuesDirectly() {
+        SupportSQLiteDatabase db = open(SafeHelperFactory.Options.builder()
+                .setStatementCacheSize(4)
+                .build());
+
+        assertEquals(3, SafeHelperFactory.queryLong(db,
+                new SimpleSQLiteQuery("SELECT COUNT(*) FROM foo")));
+        assertEquals(1, SafeHelperFactory.queryLong(db,
+                new SimpleSQLiteQuery("SELECT EXISTS(SELECT 1 FROM foo WHERE bar = ?)",
+                        new Object[]{2})));
+        assertEquals("three", SafeHelperFactory.queryString(db,
+                new SimpleSQLiteQuery("SELECT goo FROM foo WHERE bar = ?", new Object[]{2})));
+        assertNull(SafeHelperFactory.queryString(db,
+                new SimpleSQLiteQuery("SELECT goo FROM foo WHERE bar = ?", new Object[]{3})));
+        assertArrayEquals(new byte[]{1, 2, 3}, SafeHelperFactory.queryBlob(db,
+                new SimpleSQLiteQuery("SELECT payload FROM foo WHERE bar = ?", new Object[]{1})));
+
+        // the same SQL with other arguments reuses the cached statement
+        long hits = SafeHelperFactory.getStatementCache(db).hitCount();
+
+        assertEquals(0, SafeHelperFactory.queryLong(db,
+                new SimpleSQLiteQuery("SELECT EXISTS(SELECT 1 FROM foo WHERE bar = ?)",
+                        new Object[]{9})));
+        assertEquals(hits + 1, SafeHelperFactory.getStatementCache(db).hitCount());
+
+        String[] goo = new String[1];
+
+        assertTrue(SafeHelperFactory.queryRow(db,
+                new SimpleSQLiteQuery("SELECT bar, goo FROM foo ORDER BY bar LIMIT 1"), row -> {
+                    assertEquals(1, row.getLong(0));
+                    goo[0] = row.getString(1);
+
+                    return true;
+                }));
+        assertEquals("two", goo[0]);
+        assertFalse(SafeHelperFactory.queryRow(db,
+                new SimpleSQLiteQuery("SELECT bar FROM foo WHERE bar > 100"), row -> true));
+
+        db.close();
+    }
+
+    @Test(expected = SQLiteDoneException.class)
+    public void noRows() {
+        SupportSQLiteDatabase db = open(SafeHelperFactory.Options.builder().build());
+
+        try {
+            SafeHelperFactory.queryLong(db, new SimpleSQLiteQuery("SELECT bar FROM foo WHERE bar > 100"));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test(expected = SQLiteDoneException.class)
+    public void noRowsWithTimeout() {
+        SupportSQLiteDatabase db = open(SafeHelperFactory.Options.builder()
+                .setQueryTimeout(10000)
+                .build());
+
+        try {
+            SafeHelperFactory.queryString(db, new SimpleSQLiteQuery("SELECT goo FROM foo WHERE bar > 100"));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstCursor() {
+        SupportSQLiteDatabase db = open(SafeHelperFactory.Options.builder()
+                .setStatementCacheSize(4)
+                .build());
+        String sql = "SELECT COUNT(*) FROM foo WHERE bar = ?";
+        long cursorTotal = 0;
+        long scalarTotal = 0;
+
+        // warm up both paths
+        for (int i = 0; i < 100; i++) {
+            cursorCount(db, sql, i);
+            SafeHelperFactory.queryLong(db, new SimpleSQLiteQuery(sql, new Object[]{i}));
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < CALLS; i++) {
+            cursorTotal += cursorCount(db, sql, i % 4);
+        }
+
+        long cursorNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < CALLS; i++) {
+            scalarTotal += SafeHelperFactory.queryLong(db,
+                    new SimpleSQLiteQuery(sql, new Object[]{i % 4}));
+        }
+
+        long scalarNanos = System.nanoTime() - start;
+
+        Log.d("ScalarQueryTest", String.format("%d calls: cursor %d ns/call, queryLong %d ns/call",
+                CALLS, cursorNanos / CALLS, scalarNanos / CALLS));
+
+        assertEquals(cursorTotal, scalarTotal);
+
+        db.close();
+    }
+
+    private static long cursorCount(SupportSQLiteDatabase db, String sql, int bar) {
+        try (Cursor c = db.query(sql, new Object[]{bar})) {
+            c.moveToFirst();
+
+            return c.getLong(0);
+        }
+    }
+
+    private SupportSQLiteDatabase open(SafeHelperFactory.Options options) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar INTEGER, goo TEXT, payload BLOB);");
+            db.execSQL("INSERT INTO foo (bar, goo, payload) VALUES (?, ?, ?)",
+                    new Object[]{1, "two", new byte[]{1, 2, 3}});
+            db.execSQL("INSERT INTO foo (bar, goo, payload) VALUES (?, ?, ?)",
+                    new Object[]{2, "three", null});
+            db.execSQL("INSERT INTO foo (bar, goo, payload) VALUES (?, ?, ?)",
+                    new Object[]{3, null, null});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
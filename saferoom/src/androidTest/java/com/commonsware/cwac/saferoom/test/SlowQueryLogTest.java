@@ -0,0 +1,177 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+import com.commonsware.cwac.saferoom.SlowQuery;
+import com.commonsware.cwac.saferoom.SlowQueryLog;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class SlowQueryLogTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final String SLOW_SQL =
+            "SELECT count(*) FROM foo a, foo b WHERE a.goo LIKE ? AND b.bar > ?";
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("SlowQueryLogTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void logsSlowQueryWithPlan() {
+        SupportSQLiteDatabase db = open(1, 4);
+
+        insertRows(db, 1000);
+
+        try (Cursor c = db.query(SLOW_SQL, new Object[]{"%row%", 10})) {
+            assertEquals(1, c.getCount());
+        }
+
+        SlowQueryLog log = SafeHelperFactory.getSlowQueryLog(db);
+        SlowQuery entry = findEntry(log.dump());
+
+        assertNotNull(entry);
+        assertEquals(Arrays.asList("TEXT", "INTEGER"), entry.getArgTypes());
+        assertEquals(1, entry.getRows());
+        assertTrue(entry.getDurationNanos() >= 1_000_000);
+
+        long deadline = SystemClock.uptimeMillis() + 10_000;
+
+        while (entry.getPlan() == null && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(20);
+        }
+
+        Log.d("SlowQueryLogTest", entry.toString());
+        assertNotNull(entry.getPlan());
+        assertTrue(entry.getPlan().contains("SCAN"));
+
+        db.close();
+    }
+
+    @Test
+    public void keepsNewestEntries() throws Exception {
+        SupportSQLiteDatabase db = open(1, 2);
+
+        insertRows(db, 1000);
+
+        for (int i = 0; i < 3; i++) {
+            try (SupportSQLiteStatement statement = db.compileStatement(SLOW_SQL)) {
+                statement.bindString(1, "%" + i + "%");
+                statement.bindLong(2, i);
+                statement.simpleQueryForLong();
+            }
+        }
+
+        List<SlowQuery> entries = SafeHelperFactory.getSlowQueryLog(db).dump();
+
+        assertEquals(2, entries.size());
+        assertTrue(entries.get(0).getTimestampMillis() <= entries.get(1).getTimestampMillis());
+
+        SafeHelperFactory.getSlowQueryLog(db).clear();
+        assertTrue(SafeHelperFactory.getSlowQueryLog(db).dump().isEmpty());
+
+        db.close();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        SupportSQLiteDatabase db = open(0, 0);
+
+        assertNull(SafeHelperFactory.getSlowQueryLog(db));
+
+        db.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        SafeHelperFactory.Options.builder().setSlowQueryLog(100, 0);
+    }
+
+    private SupportSQLiteDatabase open(long thresholdMillis, int capacity) {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setSlowQueryLog(thresholdMillis, capacity)
+                .build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    private static SlowQuery findEntry(List<SlowQuery> entries) {
+        for (SlowQuery entry : entries) {
+            if (SLOW_SQL.equals(entry.getSql())) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private static void insertRows(SupportSQLiteDatabase db, int count) {
+        db.beginTransaction();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{i, "row " + i});
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+import com.commonsware.cwac.saferoom.StatementCache;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final String INSERT = "INSERT INTO foo (bar, goo) VALUES (?, ?)";
+    private static final String COUNT = "SELECT COUNT(*) FROM foo";
+    private static final String MAX = "SELECT MAX(bar) FROM foo";
+    private static final int CALLS = 20_000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("StatementCacheTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void disabledByDefault() {
+        SupportSQLiteDatabase db = open(SafeHelperFactory.Options.builder().build());
+
+        assertNull(SafeHelperFactory.getStatementCache(db));
+
+        db.close();
+    }
+
+    @Test
+    public void hitsMissesAndEvictions() throws Exception {
+        SupportSQLiteDatabase db =
+                open(SafeHelperFactory.Options.builder().setStatementCacheSize(2).build());
+        StatementCache cache = SafeHelperFactory.getStatementCache(db);
+
+        assertNotNull(cache);
+
+        for (int i = 0; i < 10; i++) {
+            try (SupportSQLiteStatement statement = db.compileStatement(INSERT)) {
+                statement.bindLong(1, i);
+                statement.bindString(2, "row" + i);
+                statement.executeInsert();
+            }
+        }
+
+        assertEquals(1, cache.missCount());
+        assertEquals(9, cache.hitCount());
+        assertEquals(1, cache.size());
+
+        try (SupportSQLiteStatement statement = db.compileStatement(COUNT)) {
+            assertEquals(11, statement.simpleQueryForLong());
+        }
+
+        try (SupportSQLiteStatement statement = db.compileStatement(MAX)) {
+            assertEquals(9, statement.simpleQueryForLong());
+        }
+
+        assertEquals(3, cache.missCount());
+        assertEquals(1, cache.evictionCount());
+        assertEquals(2, cache.size());
+
+        // a cache hit must not see the bindings of the previous use
+        try (SupportSQLiteStatement statement = db.compileStatement(INSERT)) {
+            statement.bindLong(1, 100);
+            statement.executeInsert();
+        }
+
+        assertEquals(1, db.query("SELECT * FROM foo WHERE bar = 100 AND goo IS NULL").getCount());
+
+        db.close();
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void benchmarkCompile() throws Exception {
+        long uncached = timeCompiles(SafeHelperFactory.Options.builder().build());
+
+        tearDown();
+
+        long cached = timeCompiles(SafeHelperFactory.Options.builder()
+                .setStatementCacheSize(4)
+                .build());
+
+        // both runs hit SQLCipher's own prepared-statement cache, so the
+        // difference is what the StatementCache adds on top of it
+        Log.d("StatementCacheTest", String.format("%d compile/execute/close: uncached %d ns/op, "
+                + "cached %d ns/op", CALLS, uncached / CALLS, cached / CALLS));
+    }
+
+    private long timeCompiles(SafeHelperFactory.Options options) throws Exception {
+        SupportSQLiteDatabase db = open(options);
+        long start = 0;
+
+        // the first 100 calls warm up both caches
+        for (int i = -100; i < CALLS; i++) {
+            if (i == 0) {
+                start = System.nanoTime();
+            }
+
+            try (SupportSQLiteStatement statement = db.compileStatement(MAX)) {
+                statement.simpleQueryForLong();
+            }
+        }
+
+        long result = System.nanoTime() - start;
+
+        db.close();
+
+        return result;
+    }
+
+    private SupportSQLiteDatabase open(SafeHelperFactory.Options options) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "two"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
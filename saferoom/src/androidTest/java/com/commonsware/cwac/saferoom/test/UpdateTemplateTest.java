@@ -0,0 +1,139 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+import com.commonsware.cwac.saferoom.StatementCache;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class UpdateTemplateTest {
+    private static final String DB_NAME = "db";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int ITERATIONS = 1000;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("UpdateTemplateTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void repeatedUpdatesReuseStatements() {
+        SupportSQLiteDatabase db = open(4);
+        StatementCache cache = SafeHelperFactory.getStatementCache(db);
+        ContentValues values = new ContentValues();
+
+        db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "one"});
+
+        long updateNanos = timeUpdates(db, values);
+
+        assertTrue(cache.hitCount() >= ITERATIONS - 1);
+
+        try (Cursor c = db.query("SELECT goo FROM foo WHERE bar = 1")) {
+            c.moveToFirst();
+            assertEquals("value " + (ITERATIONS - 1), c.getString(0));
+        }
+
+        assertEquals(1, db.delete("foo", "bar = ?", new Object[]{1}));
+        assertEquals(0, db.delete("foo", "bar = ?", new Object[]{1}));
+
+        Log.d("UpdateTemplateTest", String.format("update: %d ns/call", updateNanos / ITERATIONS));
+
+        db.close();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void allocationsPerUpdate() {
+        for (int cacheSize : new int[]{0, 4}) {
+            SupportSQLiteDatabase db = open(cacheSize);
+            ContentValues values = new ContentValues();
+
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{1, "one"});
+            timeUpdates(db, values);
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+
+            long nanos = timeUpdates(db, values);
+
+            Debug.stopAllocCounting();
+
+            Log.d("UpdateTemplateTest", String.format(
+                    "statement cache %d: %d ns/call, %d allocations/call", cacheSize,
+                    nanos / ITERATIONS, Debug.getThreadAllocCount() / ITERATIONS));
+
+            db.close();
+            tearDown();
+        }
+    }
+
+    private static long timeUpdates(SupportSQLiteDatabase db, ContentValues values) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            values.put("goo", "value " + i);
+            db.update("foo", SQLiteDatabase.CONFLICT_NONE, values, "bar = ?", new Object[]{1});
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private SupportSQLiteDatabase open(int cacheSize) {
+        SafeHelperFactory.Options options =
+                SafeHelperFactory.Options.builder().setStatementCacheSize(cacheSize).build();
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, DB_NAME, new Callback(1));
+
+        return helper.getWritableDatabase();
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.commonsware.cwac.saferoom.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.CheckpointMode;
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+@RunWith(AndroidJUnit4.class)
+public class WalRecoveryTest {
+    private static final String DB_NAME = "db";
+    private static final String CRASHED_DB_NAME = "crashed";
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final int ROWS = 500;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void tearDown() {
+        File db = context.getDatabasePath(DB_NAME);
+        File parentDir = db.getParentFile();
+        if (parentDir != null) {
+            File[] files = parentDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    // Ignore delete failures in test cleanup
+                    boolean deleted = f.delete();
+                    Log.d("WalRecoveryTest", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void uncheckpointedWalSurvivesCrash() throws IOException {
+        SupportSQLiteDatabase db = open(DB_NAME, SafeHelperFactory.Options.builder().build());
+
+        assertTrue(db.isWriteAheadLoggingEnabled());
+
+        try (Cursor c = db.query("PRAGMA wal_autocheckpoint = 0")) {
+            c.moveToFirst();
+        }
+
+        insertRows(db);
+
+        File dbFile = context.getDatabasePath(DB_NAME);
+        File walFile = new File(dbFile.getPath() + "-wal");
+
+        assertTrue("WAL should hold the uncheckpointed rows", walFile.length() > 0);
+
+        // simulate a crash: take the files as they are while the database is open
+        File crashedFile = context.getDatabasePath(CRASHED_DB_NAME);
+
+        copy(dbFile, crashedFile);
+        copy(walFile, new File(crashedFile.getPath() + "-wal"));
+        db.close();
+
+        SupportSQLiteDatabase crashed =
+                open(CRASHED_DB_NAME, SafeHelperFactory.Options.builder().build());
+
+        assertEquals(ROWS + 1, count(crashed));
+        crashed.close();
+    }
+
+    @Test
+    public void closeWithCheckpointPolicy() {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setClearPassphrase(false)
+                .setCheckpointOnClose(CheckpointMode.TRUNCATE)
+                .build();
+        SupportSQLiteDatabase db = open(DB_NAME, options);
+
+        insertRows(db);
+
+        long start = System.nanoTime();
+
+        db.close();
+
+        Log.d("WalRecoveryTest", String.format("close with TRUNCATE checkpoint: %d us",
+                (System.nanoTime() - start) / 1000));
+
+        db = open(DB_NAME, SafeHelperFactory.Options.builder().build());
+        assertEquals(ROWS + 1, count(db));
+        db.close();
+    }
+
+    private SupportSQLiteDatabase open(String name, SafeHelperFactory.Options options) {
+        SafeHelperFactory factory =
+                SafeHelperFactory.fromUser(new SpannableStringBuilder(PASSPHRASE), options);
+        SupportSQLiteOpenHelper helper = factory.create(context, name, new Callback(1));
+
+        helper.setWriteAheadLoggingEnabled(true);
+
+        return helper.getWritableDatabase();
+    }
+
+    private static void insertRows(SupportSQLiteDatabase db) {
+        for (int i = 0; i < ROWS; i++) {
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{i, "row" + i});
+        }
+    }
+
+    private static int count(SupportSQLiteDatabase db) {
+        try (Cursor c = db.query("SELECT COUNT(*) FROM foo")) {
+            c.moveToFirst();
+
+            return c.getInt(0);
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[8192];
+            int count;
+
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+    }
+
+    @SuppressWarnings("NewClassNamingConvention")
+    private static final class Callback extends SupportSQLiteOpenHelper.Callback {
+        public Callback(int version) {
+            super(version);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE foo (bar, goo);");
+            db.execSQL("INSERT INTO foo (bar, goo) VALUES (?, ?)", new Object[]{-1, "first"});
+        }
+
+        @Override
+        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/***
+ Copyright (c) 2017 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+
+ Covered in detail in the book _Android's Architecture Components_
+ https://commonsware.com/AndroidArch
+ */
+
+package com.commonsware.cwac.saferoom.test.room.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.commonsware.cwac.saferoom.SafeHelperFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(AndroidJUnit4.class)
+public class AutoCloseDaoTests {
+    private static final long IDLE_MILLIS = 200;
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    StuffDatabase db;
+    StuffStore store;
+
+    @Before
+    public void setUp() {
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setAutoClose(IDLE_MILLIS)
+                .build();
+
+        db = StuffDatabase.create(context, options);
+        store = db.stuffStore();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+
+        File parentDir = context.getDatabasePath(StuffDatabase.DB_NAME).getParentFile();
+        File[] files = (parentDir == null) ? null : parentDir.listFiles();
+
+        if (files != null) {
+            for (File f : files) {
+                // Ignore delete failures in test cleanup
+                boolean deleted = f.delete();
+                Log.d("AutoCloseDaoTests", "Deleted " + f.getAbsolutePath() + ": " + deleted);
+            }
+        }
+    }
+
+    @Test
+    public void observerSurvivesIdleReopen() throws Exception {
+        final AtomicReference<CountDownLatch> invalidated =
+                new AtomicReference<>(new CountDownLatch(1));
+
+        db.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("thingy") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidated.get().countDown();
+            }
+        });
+
+        store.insert(new VersionedThingy());
+        assertTrue(invalidated.get().await(5, TimeUnit.SECONDS));
+
+        // the TEMP table and triggers that the tracker relies upon close with
+        // the connection, and have to be set up again on the new one
+        awaitIdleClose();
+        invalidated.set(new CountDownLatch(1));
+
+        VersionedThingy thingy = new VersionedThingy();
+
+        store.insert(thingy);
+        assertTrue(invalidated.get().await(5, TimeUnit.SECONDS));
+        assertNotNull(store.findById(thingy.id, thingy.versionCode));
+    }
+
+    private void awaitIdleClose() throws Exception {
+        for (int i = 0; i < 50 && openFiles() > 0; i++) {
+            Thread.sleep(IDLE_MILLIS / 2);
+        }
+
+        assertEquals(0, openFiles());
+    }
+
+    /**
+     * @return how many file descriptors this process has open on the
+     * database file
+     */
+    private int openFiles() throws IOException {
+        String path = context.getDatabasePath(StuffDatabase.DB_NAME).getCanonicalPath();
+        File[] fds = new File("/proc/self/fd").listFiles();
+        int result = 0;
+
+        if (fds != null) {
+            for (File fd : fds) {
+                try {
+                    if (path.equals(fd.getCanonicalPath())) {
+                        result++;
+                    }
+                } catch (IOException e) {
+                    // closed while we looked
+                }
+            }
+        }
+
+        return result;
+    }
+}
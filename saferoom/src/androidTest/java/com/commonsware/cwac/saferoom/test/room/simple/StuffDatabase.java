@@ -36,6 +36,13 @@ abstract class StuffDatabase extends RoomDatabase {
 
     static final String DB_NAME = "stuff.db";
 
+    static StuffDatabase create(Context context, SafeHelperFactory.Options options) {
+        return (Room.databaseBuilder(context.getApplicationContext(), StuffDatabase.class, DB_NAME)
+                .openHelperFactory(
+                        SafeHelperFactory.fromUser(new SpannableStringBuilder("sekrit"), options))
+                .build());
+    }
+
     @SuppressWarnings("SameParameterValue")
     static StuffDatabase create(Context context, boolean memoryOnly, boolean truncate) {
         RoomDatabase.Builder<StuffDatabase> b;
@@ -0,0 +1,185 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Closes the connections of one Database once nothing has used them for a
+ * while, and reopens them on next use, keyed from the open helper's
+ * DerivedKeyCache so that the reopen skips key derivation. Each use of a
+ * connection pins it; cursors and transactions hold their pin until they
+ * are closed or end, so connections are never closed out from under them.
+ */
+final class AutoCloser {
+    private final Database database;
+    private final Helper.OpenHelper openHelper;
+    private final long idleMillis;
+    private int pins;
+    private int generation;
+    private long lastUseMillis;
+    private boolean started;
+    private boolean idleClosed;
+    private boolean closed;
+    private boolean writeAheadLogging;
+    private ScheduledFuture<?> idleCheck;
+
+    AutoCloser(Database database, Helper.OpenHelper openHelper, long idleMillis) {
+        this.database = database;
+        this.openHelper = openHelper;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Starts watching for idleness, once the open that created the database
+     * is done with creation, migration, and the callbacks
+     */
+    synchronized void start() {
+        started = true;
+        lastUseMillis = System.currentTimeMillis();
+        scheduleIdleCheck(idleMillis);
+    }
+
+    /**
+     * Pins the writer connection, reopening it first if it was closed for
+     * being idle. Pair each call with unpin().
+     *
+     * @return the writer connection
+     */
+    synchronized SqlConnection pin() {
+        if (idleClosed && !closed) {
+            SqlConnection connection = openHelper.openConnection(writeAheadLogging);
+            ReaderPool readerPool;
+
+            try {
+                readerPool = openHelper.openReaderPool(connection);
+            } catch (RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+
+            database.onReopened(connection, readerPool);
+            generation++;
+            idleClosed = false;
+
+            try {
+                // the callbacks pin the connection too, which is fine now
+                // that it is open again
+                openHelper.onReopened(database);
+            } catch (RuntimeException e) {
+                database.onIdleClose();
+                connection.close();
+                idleClosed = true;
+                throw e;
+            }
+
+            scheduleIdleCheck(idleMillis);
+        }
+
+        pins++;
+
+        return database.getConnection();
+    }
+
+    /**
+     * Pins the writer connection if it is open, without reopening it. Pair a
+     * non-null result with unpin().
+     *
+     * @return the writer connection, or null if it was closed for being idle
+     */
+    synchronized SqlConnection pinIfOpen() {
+        if (idleClosed) {
+            return null;
+        }
+
+        pins++;
+
+        return database.getConnection();
+    }
+
+    /**
+     * Adds a pin for a cursor opened while the caller holds a pin
+     */
+    synchronized void pinAgain() {
+        pins++;
+    }
+
+    synchronized void unpin() {
+        pins--;
+        lastUseMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the number of times the connections have been reopened, so a
+     * Statement can tell that it needs to recompile
+     */
+    synchronized int generation() {
+        return generation;
+    }
+
+    /**
+     * @return true if the connections are currently closed for being idle
+     */
+    synchronized boolean isIdleClosed() {
+        return idleClosed;
+    }
+
+    /**
+     * Stops watching for idleness, for when the database itself is closed.
+     * The caller closes the writer; this closes a reader pool that it
+     * opened.
+     */
+    synchronized void close() {
+        closed = true;
+
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+    }
+
+    private void scheduleIdleCheck(long delayMillis) {
+        if (!closed && idleCheck == null) {
+            idleCheck = BackgroundScheduler.schedule(this::onIdleCheck, delayMillis);
+        }
+    }
+
+    private synchronized void onIdleCheck() {
+        idleCheck = null;
+
+        if (closed || idleClosed || !started) {
+            return;
+        }
+
+        long idleFor = System.currentTimeMillis() - lastUseMillis;
+
+        if (pins > 0 || idleFor < idleMillis) {
+            scheduleIdleCheck((pins > 0) ? idleMillis : idleMillis - idleFor);
+            return;
+        }
+
+        // e.g., the key could not be derived, and the passphrase was not
+        // kept; better to stay open than to fail on the next use
+        if (!openHelper.canReopen()) {
+            return;
+        }
+
+        // nothing holds a pin, and pin() waits on this lock, so nothing can
+        // start using the connections while they are closed
+        SqlConnection connection = database.getConnection();
+
+        writeAheadLogging = connection.isWriteAheadLoggingEnabled();
+        database.onIdleClose();
+        connection.close();
+        idleClosed = true;
+    }
+}
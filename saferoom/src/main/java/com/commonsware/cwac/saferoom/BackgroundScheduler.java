@@ -0,0 +1,46 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide daemon thread for the library's own delayed work, such as
+ * query timeouts. Tasks run here must be short and must not block.
+ */
+final class BackgroundScheduler {
+    private static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private BackgroundScheduler() {
+        // static methods only
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return EXECUTOR.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "SafeRoom-Scheduler");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        result.setRemoveOnCancelPolicy(true);
+
+        return result;
+    }
+}
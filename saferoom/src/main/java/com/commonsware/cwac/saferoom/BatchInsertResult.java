@@ -0,0 +1,54 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * The outcome of SafeHelperFactory.insertAll()
+ */
+public final class BatchInsertResult {
+    private final long[] rowIds;
+    private final long durationNanos;
+
+    BatchInsertResult(long[] rowIds, long durationNanos) {
+        this.rowIds = rowIds;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * @return the rowid of each inserted row, in the order of the supplied
+     * ContentValues, with -1 for rows skipped by CONFLICT_IGNORE
+     */
+    public long[] getRowIds() {
+        return rowIds;
+    }
+
+    /**
+     * @return how long the whole batch took, including its transaction, in
+     * nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return rows inserted per second
+     */
+    public double getRowsPerSecond() {
+        return (durationNanos == 0) ? 0 : rowIds.length * 1_000_000_000.0 / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchInsertResult{rows=" + rowIds.length + ", duration="
+                + durationNanos / 1_000_000 + "ms, rowsPerSecond=" + (long) getRowsPerSecond() + "}";
+    }
+}
@@ -0,0 +1,90 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteProgram;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SupportSQLiteProgram that only remembers the SQLite type of each bound
+ * argument, never its value, for the slow-query log.
+ */
+final class BindTypes implements SupportSQLiteProgram {
+    static final String NULL = "NULL";
+    static final String INTEGER = "INTEGER";
+    static final String REAL = "REAL";
+    static final String TEXT = "TEXT";
+    static final String BLOB = "BLOB";
+
+    private final ArrayList<String> types = new ArrayList<>();
+
+    static List<String> of(SupportSQLiteQuery query) {
+        BindTypes result = new BindTypes();
+
+        query.bindTo(result);
+
+        return result.snapshot();
+    }
+
+    List<String> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(types));
+    }
+
+    @Override
+    public void bindNull(int index) {
+        set(index, NULL);
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+        set(index, INTEGER);
+    }
+
+    @Override
+    public void bindDouble(int index, double value) {
+        set(index, REAL);
+    }
+
+    @Override
+    public void bindString(int index, @NonNull String value) {
+        set(index, TEXT);
+    }
+
+    @Override
+    public void bindBlob(int index, @NonNull byte[] value) {
+        set(index, BLOB);
+    }
+
+    @Override
+    public void clearBindings() {
+        types.clear();
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private void set(int index, String type) {
+        // bind indices start at 1; arguments that were never bound are NULL
+        while (types.size() < index) {
+            types.add(NULL);
+        }
+
+        types.set(index - 1, type);
+    }
+}
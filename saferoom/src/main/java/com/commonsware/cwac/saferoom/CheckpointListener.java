@@ -0,0 +1,34 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * Receives the outcome of each background WAL checkpoint. Register one via
+ * SafeHelperFactory.Options.Builder.setCheckpointListener(). It is called on
+ * the checkpoint thread, so keep it short.
+ */
+public interface CheckpointListener {
+    /**
+     * @param mode               the checkpoint mode that was run
+     * @param durationNanos      how long the checkpoint took
+     * @param busy               true if the checkpoint could not finish because
+     *                           of other readers or writers
+     * @param walFrames          frames in the WAL when the checkpoint ran
+     * @param checkpointedFrames frames written back to the database file
+     *                           <p>
+     *                           A TRUNCATE checkpoint that finishes resets the
+     *                           log before SQLite reports on it, so it reports
+     *                           0 for both counts.
+     */
+    void onCheckpoint(CheckpointMode mode, long durationNanos, boolean busy,
+                      int walFrames, int checkpointedFrames);
+}
@@ -0,0 +1,45 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * The modes of SQLite's wal_checkpoint PRAGMA. See
+ * https://www.sqlite.org/pragma.html#pragma_wal_checkpoint for details.
+ */
+public enum CheckpointMode {
+    /**
+     * Checkpoints as many frames as possible without waiting for readers or
+     * writers
+     */
+    PASSIVE,
+
+    /**
+     * Waits for writers, then checkpoints all frames, waiting for readers as
+     * needed
+     */
+    FULL,
+
+    /**
+     * Like FULL, then also waits for readers so that the next writer starts
+     * the WAL over from the beginning
+     */
+    RESTART,
+
+    /**
+     * Like RESTART, then also truncates the WAL file to zero bytes
+     */
+    TRUNCATE;
+
+    String toSql() {
+        return "PRAGMA wal_checkpoint(" + name() + ");";
+    }
+}
@@ -0,0 +1,190 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs WAL checkpoints for one database on a background thread, once the WAL
+ * grows past a size threshold or the database has gone without writes for a
+ * while. SQLite's own auto-checkpoint, which runs inline on a committing
+ * writer, is turned off while this is in use.
+ * <p>
+ * Checkpoints other than TRUNCATE leave the -wal file at its full size, so
+ * journal_size_limit is set to 0 to have SQLite truncate it to the frames in
+ * use each time it restarts the log. The file size then tracks the frames
+ * that are waiting for a checkpoint, rather than the largest the log has
+ * ever been.
+ */
+class CheckpointScheduler {
+    private static final String TAG = "SafeRoom";
+    private static final String DISABLE_AUTO_CHECKPOINT = "PRAGMA wal_autocheckpoint = 0";
+    private static final String TRUNCATE_ON_RESTART = "PRAGMA journal_size_limit = 0";
+    // SQLite's own default wal_autocheckpoint, used as the size threshold
+    // when only the idle threshold was asked for, so that a steady stream of
+    // writes cannot grow the WAL without bound
+    private static final int BACKSTOP_WAL_PAGES = 1000;
+    // the -wal file is looked at once per this many writes (a power of two)
+    private static final int WRITES_PER_SIZE_CHECK = 16;
+
+    private final Database db;
+    private final File walFile;
+    private final CheckpointMode mode;
+    private final long walSizeBytes;
+    private final long idleMillis;
+    private final CheckpointListener listener;
+    private final ExecutorService executor;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicInteger writes = new AtomicInteger();
+    private volatile long lastWriteMillis;
+    private volatile long walLengthAtCheckpoint;
+    private ScheduledFuture<?> idleCheck;
+    private boolean closed;
+
+    CheckpointScheduler(Database db, SafeHelperFactory.Options options) {
+        this.db = db;
+        this.walFile = new File(db.getPath() + "-wal");
+        this.mode = options.backgroundCheckpointMode;
+        this.walSizeBytes = (options.checkpointWalSizeBytes > 0)
+                ? options.checkpointWalSizeBytes
+                : (long) BACKSTOP_WAL_PAGES * db.getPageSize();
+        this.idleMillis = options.checkpointIdleMillis;
+        this.listener = options.checkpointListener;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SafeRoom-Checkpoint");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        db.rawExecOnWriter(DISABLE_AUTO_CHECKPOINT);
+        db.rawExecOnWriter(TRUNCATE_ON_RESTART);
+    }
+
+    /**
+     * Turns off SQLite's own auto-checkpoint, and has the WAL truncated when
+     * it restarts, on a writer connection that replaces the one that this
+     * was created with
+     */
+    void configure(SqlConnection connection) {
+        connection.rawExecSQL(DISABLE_AUTO_CHECKPOINT);
+        connection.rawExecSQL(TRUNCATE_ON_RESTART);
+    }
+
+    /**
+     * Called after a write has been committed.
+     */
+    void onWrite() {
+        lastWriteMillis = System.currentTimeMillis();
+
+        if ((writes.incrementAndGet() & (WRITES_PER_SIZE_CHECK - 1)) == 0 && isWalOverSize()) {
+            requestCheckpoint();
+        } else if (idleMillis > 0) {
+            scheduleIdleCheck(idleMillis);
+        }
+    }
+
+    /**
+     * @return true if the WAL is past the size threshold and has changed
+     * since the last checkpoint, which could not restart it if a reader was
+     * still using it
+     */
+    private boolean isWalOverSize() {
+        long length = walFile.length();
+
+        return length >= walSizeBytes && length != walLengthAtCheckpoint;
+    }
+
+    /**
+     * Stops scheduling checkpoints. One that is already running is allowed
+     * to finish.
+     */
+    synchronized void close() {
+        closed = true;
+
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+
+        executor.shutdown();
+    }
+
+    private synchronized void scheduleIdleCheck(long delayMillis) {
+        if (!closed && idleCheck == null) {
+            idleCheck = BackgroundScheduler.schedule(this::onIdleCheck, delayMillis);
+        }
+    }
+
+    private void onIdleCheck() {
+        synchronized (this) {
+            idleCheck = null;
+        }
+
+        long idleFor = System.currentTimeMillis() - lastWriteMillis;
+
+        if (idleFor >= idleMillis) {
+            requestCheckpoint();
+        } else {
+            scheduleIdleCheck(idleMillis - idleFor);
+        }
+    }
+
+    private void requestCheckpoint() {
+        if (pending.compareAndSet(false, true)) {
+            synchronized (this) {
+                if (closed) {
+                    pending.set(false);
+                    return;
+                }
+
+                executor.execute(this::checkpoint);
+            }
+        }
+    }
+
+    private void checkpoint() {
+        pending.set(false);
+
+        // a connection closed for being idle was checkpointed as it closed,
+        // and is not worth reopening just to check
+        if (!db.isOpen() || db.isIdleClosed()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try (Cursor c = db.queryOnWriter(new SimpleSQLiteQuery(mode.toSql()))) {
+            if (c.moveToFirst() && listener != null) {
+                listener.onCheckpoint(mode, System.nanoTime() - start, c.getInt(0) != 0,
+                        c.getInt(1), c.getInt(2));
+            }
+        } catch (RuntimeException e) {
+            // the database may have been closed while we waited; the next
+            // write, if any, will schedule another attempt
+            Log.w(TAG, "Background WAL checkpoint failed", e);
+        }
+
+        walLengthAtCheckpoint = walFile.length();
+    }
+}
@@ -0,0 +1,44 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+/**
+ * SqlBackend for SQLCipher for Android, which is what SafeRoom uses unless
+ * a test says otherwise
+ */
+final class CipherBackend implements SqlBackend {
+    static final CipherBackend INSTANCE = new CipherBackend();
+
+    private CipherBackend() {
+        // use INSTANCE
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void load() {
+        NativeLoader.ensureLoaded();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SqlConnection open(String path, byte[] key, int flags,
+                              SafeHelperFactory.Options options) {
+        return new CipherConnection(SQLiteDatabase.openDatabase(path, key, null, flags, null,
+                Helper.OpenHelper.hookFor(options)));
+    }
+}
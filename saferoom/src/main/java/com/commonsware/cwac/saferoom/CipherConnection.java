@@ -0,0 +1,360 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.CancellationSignal;
+import android.util.Pair;
+
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import net.zetetic.database.sqlcipher.SQLiteCursor;
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * SqlConnection over a SQLCipher for Android SQLiteDatabase
+ */
+final class CipherConnection implements SqlConnection {
+    private static final String[] NO_SELECTION_ARGS = new String[0];
+    private final SQLiteDatabase db;
+
+    CipherConnection(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SqlStatement compileStatement(String sql) {
+        return new CipherStatement(db.compileStatement(sql));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor query(final SupportSQLiteQuery supportQuery, CancellationSignal signal,
+                        final CursorHold hold) {
+        // the arguments are bound once, with their real types, by the factory;
+        // nothing is passed as selection arguments, so they are not converted
+        // to strings first
+        return db.rawQueryWithFactory(
+                (db, masterQuery, editTable, query) -> {
+                    supportQuery.bindTo(new CipherProgram(query));
+
+                    if (hold == null) {
+                        return new SQLiteCursor(masterQuery, editTable, query);
+                    }
+
+                    return new PinnedCursor(masterQuery, editTable, query, hold);
+                }, supportQuery.getSql(), NO_SELECTION_ARGS, null, signal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rawExecSQL(String sql) {
+        db.rawExecSQL(sql);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execSQL(String sql) {
+        db.execSQL(sql);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execSQL(String sql, Object[] bindArgs) {
+        db.execSQL(sql, bindArgs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long insertWithOnConflict(String table, String nullColumnHack, ContentValues values,
+                                     int conflictAlgorithm) {
+        return db.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginTransactionNonExclusive() {
+        db.beginTransactionNonExclusive();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginTransactionWithListener(SQLiteTransactionListener listener) {
+        db.beginTransactionWithListener(wrap(listener));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginTransactionWithListenerNonExclusive(SQLiteTransactionListener listener) {
+        db.beginTransactionWithListenerNonExclusive(wrap(listener));
+    }
+
+    private static net.zetetic.database.sqlcipher.SQLiteTransactionListener wrap(
+            SQLiteTransactionListener listener) {
+        return new net.zetetic.database.sqlcipher.SQLiteTransactionListener() {
+            @Override
+            public void onBegin() {
+                listener.onBegin();
+            }
+
+            @Override
+            public void onCommit() {
+                listener.onCommit();
+            }
+
+            @Override
+            public void onRollback() {
+                listener.onRollback();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endTransaction() {
+        db.endTransaction();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean inTransaction() {
+        return db.inTransaction();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDbLockedByCurrentThread() {
+        return db.isDbLockedByCurrentThread();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean yieldIfContendedSafely() {
+        return db.yieldIfContendedSafely();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean yieldIfContendedSafely(long sleepAfterYieldDelay) {
+        return db.yieldIfContendedSafely(sleepAfterYieldDelay);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getVersion() {
+        return db.getVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setVersion(int version) {
+        db.setVersion(version);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaximumSize() {
+        return db.getMaximumSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long setMaximumSize(long numBytes) {
+        return db.setMaximumSize(numBytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPageSize() {
+        return db.getPageSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPageSize(long numBytes) {
+        db.setPageSize(numBytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return db.isReadOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean needUpgrade(int newVersion) {
+        return db.needUpgrade(newVersion);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPath() {
+        return db.getPath();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLocale(Locale locale) {
+        db.setLocale(locale);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxSqlCacheSize(int cacheSize) {
+        db.setMaxSqlCacheSize(cacheSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setForeignKeyConstraintsEnabled(boolean enable) {
+        db.setForeignKeyConstraintsEnabled(enable);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean enableWriteAheadLogging() {
+        return db.enableWriteAheadLogging();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disableWriteAheadLogging() {
+        db.disableWriteAheadLogging();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isWriteAheadLoggingEnabled() {
+        return db.isWriteAheadLoggingEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Pair<String, String>> getAttachedDbs() {
+        return db.getAttachedDbs();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDatabaseIntegrityOk() {
+        return db.isDatabaseIntegrityOk();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changePassword(byte[] password) {
+        db.changePassword(password);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        db.close();
+    }
+}
@@ -0,0 +1,368 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import net.zetetic.database.sqlcipher.SQLiteConnection;
+import net.zetetic.database.sqlcipher.SQLiteDatabaseHook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed set of SQLCipher and SQLite tuning settings, applied at the right
+ * point around keying each connection. Settings that are left unset keep
+ * their SQLCipher defaults. Use builder() to create one, or start from one
+ * of the presets, and pass it to SafeHelperFactory.Options.Builder.setCipherProfile().
+ */
+public final class CipherProfile {
+    /**
+     * Digests that SQLCipher supports for its HMAC and its key derivation
+     */
+    public enum Digest {
+        SHA1, SHA256, SHA512
+    }
+
+    /**
+     * Values for the temp_store PRAGMA
+     */
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    /**
+     * Values for the synchronous PRAGMA
+     */
+    public enum Synchronous {
+        OFF, NORMAL, FULL, EXTRA
+    }
+
+    /**
+     * Values for the journal_mode PRAGMA
+     */
+    public enum JournalMode {
+        DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF
+    }
+
+    /**
+     * Favors speed: no memory wiping, an 8 MB page cache, in-memory temporary
+     * tables, write-ahead logging, and NORMAL synchronization, which is
+     * durable across app crashes but not necessarily power loss.
+     */
+    public static final CipherProfile THROUGHPUT = builder()
+            .setMemorySecurity(false)
+            .setCacheSize(-8192)
+            .setTempStore(TempStore.MEMORY)
+            .setJournalMode(JournalMode.WAL)
+            .setSynchronous(Synchronous.NORMAL)
+            .build();
+
+    /**
+     * Opens databases created by SQLCipher 3.x, with the settings that
+     * PRAGMA cipher_compatibility = 3 would apply.
+     */
+    public static final CipherProfile COMPAT_V3 = builder()
+            .setPageSize(1024)
+            .setKdfIterations(64000)
+            .setHmacAlgorithm(Digest.SHA1)
+            .setKdfAlgorithm(Digest.SHA1)
+            .build();
+
+    final Integer pageSize;
+    final Integer kdfIterations;
+    final Digest hmacAlgorithm;
+    final Digest kdfAlgorithm;
+    final Boolean memorySecurity;
+    final Integer cacheSize;
+    final TempStore tempStore;
+    final Synchronous synchronous;
+    final JournalMode journalMode;
+    final SQLiteDatabaseHook hook;
+
+    private CipherProfile(Builder builder) {
+        pageSize = builder.pageSize;
+        kdfIterations = builder.kdfIterations;
+        hmacAlgorithm = builder.hmacAlgorithm;
+        kdfAlgorithm = builder.kdfAlgorithm;
+        memorySecurity = builder.memorySecurity;
+        cacheSize = builder.cacheSize;
+        tempStore = builder.tempStore;
+        synchronous = builder.synchronous;
+        journalMode = builder.journalMode;
+        hook = new Hook(preKeySql(), postKeySql());
+    }
+
+    /**
+     * @return a Builder to use to create a CipherProfile
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a Builder starting from the settings of this profile, such as
+     * to adjust one of the presets
+     */
+    public Builder toBuilder() {
+        Builder result = new Builder();
+
+        result.pageSize = pageSize;
+        result.kdfIterations = kdfIterations;
+        result.hmacAlgorithm = hmacAlgorithm;
+        result.kdfAlgorithm = kdfAlgorithm;
+        result.memorySecurity = memorySecurity;
+        result.cacheSize = cacheSize;
+        result.tempStore = tempStore;
+        result.synchronous = synchronous;
+        result.journalMode = journalMode;
+
+        return result;
+    }
+
+    /**
+     * Applies the settings that only matter for the writer, which SQLCipher
+     * resets while opening a connection, so they cannot go in the hook.
+     *
+     * @param db the freshly-opened writer
+     */
+    void applyAfterOpen(SqlConnection db) {
+        if (journalMode == JournalMode.WAL) {
+            db.enableWriteAheadLogging();
+        } else if (journalMode != null) {
+            if (db.isWriteAheadLoggingEnabled()) {
+                db.disableWriteAheadLogging();
+            }
+
+            db.rawExecSQL("PRAGMA journal_mode = " + journalMode.name() + ";");
+        }
+
+        if (synchronous != null) {
+            db.rawExecSQL("PRAGMA synchronous = " + synchronous.name() + ";");
+        }
+    }
+
+    /**
+     * As applyAfterOpen(), for a read-only reader connection. The journal
+     * mode belongs to the database file, so it is left to the writer; the
+     * rest of the profile reaches readers through the hook.
+     *
+     * @param db the freshly-opened reader
+     */
+    void applyToReader(SqlConnection db) {
+        if (synchronous != null) {
+            db.rawExecSQL("PRAGMA synchronous = " + synchronous.name() + ";");
+        }
+    }
+
+    private List<String> preKeySql() {
+        List<String> result = new ArrayList<>();
+
+        // a process-wide setting, so it does not depend on the key
+        if (memorySecurity != null) {
+            result.add("PRAGMA cipher_memory_security = " + (memorySecurity ? "ON" : "OFF") + ";");
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private List<String> postKeySql() {
+        List<String> result = new ArrayList<>();
+
+        // the cipher settings have to follow the key but precede the first
+        // read of the database
+        if (pageSize != null) {
+            result.add("PRAGMA cipher_page_size = " + pageSize + ";");
+        }
+
+        if (kdfIterations != null) {
+            result.add("PRAGMA kdf_iter = " + kdfIterations + ";");
+        }
+
+        if (hmacAlgorithm != null) {
+            result.add("PRAGMA cipher_hmac_algorithm = HMAC_" + hmacAlgorithm.name() + ";");
+        }
+
+        if (kdfAlgorithm != null) {
+            result.add("PRAGMA cipher_kdf_algorithm = PBKDF2_HMAC_" + kdfAlgorithm.name() + ";");
+        }
+
+        // these are per-connection, so every connection gets them here
+        if (cacheSize != null) {
+            result.add("PRAGMA cache_size = " + cacheSize + ";");
+        }
+
+        if (tempStore != null) {
+            result.add("PRAGMA temp_store = " + tempStore.name() + ";");
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private static class Hook implements SQLiteDatabaseHook {
+        private final List<String> preKeySql;
+        private final List<String> postKeySql;
+
+        Hook(List<String> preKeySql, List<String> postKeySql) {
+            this.preKeySql = preKeySql;
+            this.postKeySql = postKeySql;
+        }
+
+        @Override
+        public void preKey(SQLiteConnection connection) {
+            for (String sql : preKeySql) {
+                connection.execute(sql, null, null);
+            }
+        }
+
+        @Override
+        public void postKey(SQLiteConnection connection) {
+            for (String sql : postKeySql) {
+                connection.execute(sql, null, null);
+            }
+        }
+    }
+
+    /**
+     * A builder of CipherProfile objects. Each setter validates its value and
+     * throws IllegalArgumentException if SQLCipher would not accept it.
+     */
+    public static class Builder {
+        private Integer pageSize;
+        private Integer kdfIterations;
+        private Digest hmacAlgorithm;
+        private Digest kdfAlgorithm;
+        private Boolean memorySecurity;
+        private Integer cacheSize;
+        private TempStore tempStore;
+        private Synchronous synchronous;
+        private JournalMode journalMode;
+
+        private Builder() {
+            // use the builder() method on CipherProfile
+        }
+
+        /**
+         * @param pageSize cipher_page_size: a power of two from 512 to 65536
+         * @return the builder, for further configuration
+         */
+        public Builder setPageSize(int pageSize) {
+            if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+                throw new IllegalArgumentException("Page size must be a power of two from 512 to 65536");
+            }
+
+            this.pageSize = pageSize;
+
+            return this;
+        }
+
+        /**
+         * @param iterations kdf_iter: PBKDF2 iterations used to derive the key
+         *                   from a passphrase; at least 1
+         * @return the builder, for further configuration
+         */
+        public Builder setKdfIterations(int iterations) {
+            if (iterations < 1) {
+                throw new IllegalArgumentException("KDF iterations must be at least 1");
+            }
+
+            this.kdfIterations = iterations;
+
+            return this;
+        }
+
+        /**
+         * @param digest cipher_hmac_algorithm: digest for the per-page HMAC
+         * @return the builder, for further configuration
+         */
+        public Builder setHmacAlgorithm(Digest digest) {
+            this.hmacAlgorithm = digest;
+
+            return this;
+        }
+
+        /**
+         * @param digest cipher_kdf_algorithm: digest for PBKDF2 key derivation
+         * @return the builder, for further configuration
+         */
+        public Builder setKdfAlgorithm(Digest digest) {
+            this.kdfAlgorithm = digest;
+
+            return this;
+        }
+
+        /**
+         * @param enabled cipher_memory_security: true to wipe and lock memory
+         *                that SQLCipher allocates, which is safer but slower.
+         *                This setting applies to the whole process.
+         * @return the builder, for further configuration
+         */
+        public Builder setMemorySecurity(boolean enabled) {
+            this.memorySecurity = enabled;
+
+            return this;
+        }
+
+        /**
+         * @param cacheSize cache_size: a positive number of pages, or a negative
+         *                  number of KiB, for each connection's page cache
+         * @return the builder, for further configuration
+         */
+        public Builder setCacheSize(int cacheSize) {
+            if (cacheSize == 0) {
+                throw new IllegalArgumentException("Cache size cannot be zero");
+            }
+
+            this.cacheSize = cacheSize;
+
+            return this;
+        }
+
+        /**
+         * @param tempStore temp_store: where temporary tables and indices live
+         * @return the builder, for further configuration
+         */
+        public Builder setTempStore(TempStore tempStore) {
+            this.tempStore = tempStore;
+
+            return this;
+        }
+
+        /**
+         * @param synchronous synchronous: how hard SQLite works to make commits
+         *                    durable, applied to the writer connection
+         * @return the builder, for further configuration
+         */
+        public Builder setSynchronous(Synchronous synchronous) {
+            this.synchronous = synchronous;
+
+            return this;
+        }
+
+        /**
+         * @param journalMode journal_mode: WAL is the same as enabling
+         *                    write-ahead logging on the open helper
+         * @return the builder, for further configuration
+         */
+        public Builder setJournalMode(JournalMode journalMode) {
+            this.journalMode = journalMode;
+
+            return this;
+        }
+
+        /**
+         * @return the CipherProfile with your requested settings
+         */
+        public CipherProfile build() {
+            return new CipherProfile(this);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /***
- Copyright (c) 2017 CommonsWare, LLC
+ Copyright (c) 2017-2018 CommonsWare, LLC
  Licensed under the Apache License, Version 2.0 (the "License"); you may not
  use this file except in compliance with the License. You may obtain	a copy
  of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
@@ -7,70 +7,79 @@
  License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
  OF ANY KIND, either express or implied. See the License for the specific
  language governing permissions and limitations under the License.
-
- Covered in detail in the book _The Busy Coder's Guide to Android Development_
- https://commonsware.com/Android
  */
 
 package com.commonsware.cwac.saferoom;
 
-import android.util.SparseArray;
-
 import androidx.annotation.NonNull;
 import androidx.sqlite.db.SupportSQLiteProgram;
 
-class BindingsRecorder implements SupportSQLiteProgram {
-    private final SparseArray<Object> bindings = new SparseArray<>();
+import net.zetetic.database.sqlcipher.SQLiteProgram;
+
+/**
+ * SupportSQLiteProgram over SQLCipher for Android's SQLiteProgram, for
+ * binding a query's arguments
+ */
+class CipherProgram implements SupportSQLiteProgram {
+    private final SQLiteProgram delegate;
+
+    CipherProgram(SQLiteProgram delegate) {
+        this.delegate = delegate;
+    }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void bindNull(int index) {
-        bindings.put(index, null);
+        delegate.bindNull(index);
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void bindLong(int index, long value) {
-        bindings.put(index, value);
+        delegate.bindLong(index, value);
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void bindDouble(int index, double value) {
-        bindings.put(index, value);
+        delegate.bindDouble(index, value);
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void bindString(int index, @NonNull String value) {
-        bindings.put(index, value);
+        delegate.bindString(index, value);
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void bindBlob(int index, @NonNull byte[] value) {
-        bindings.put(index, value);
+        delegate.bindBlob(index, value);
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void clearBindings() {
-        bindings.clear();
+        delegate.clearBindings();
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public void close() {
-        clearBindings();
-    }
-
-    String[] getBindings() {
-        final String[] result = new String[bindings.size()];
-
-        for (int i = 0; i < bindings.size(); i++) {
-            int key = bindings.keyAt(i);
-            Object binding = bindings.get(key);
-
-            if (binding != null) {
-                result[i] = bindings.get(key).toString();
-            } else {
-                result[i] = ""; // SQLCipher does not like null binding values
-            }
-        }
-
-        return (result);
+        delegate.close();
     }
 }
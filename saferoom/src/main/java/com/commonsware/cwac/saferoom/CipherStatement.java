@@ -0,0 +1,66 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+/**
+ * SqlStatement over SQLCipher for Android's SQLiteStatement
+ */
+final class CipherStatement extends CipherProgram implements SqlStatement {
+    private final SQLiteStatement delegate;
+
+    CipherStatement(SQLiteStatement delegate) {
+        super(delegate);
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        delegate.execute();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int executeUpdateDelete() {
+        return delegate.executeUpdateDelete();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long executeInsert() {
+        return delegate.executeInsert();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long simpleQueryForLong() {
+        return delegate.simpleQueryForLong();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String simpleQueryForString() {
+        return delegate.simpleQueryForString();
+    }
+}
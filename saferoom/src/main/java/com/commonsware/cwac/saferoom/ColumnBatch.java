@@ -0,0 +1,296 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * Reusable column-oriented buffers for SafeHelperFactory.readColumns(). A
+ * batch holds up to getCapacity() rows of the leading columns of a query,
+ * one primitive array per column, and is refilled in place for each batch
+ * of rows, so a read allocates nothing per row once the batch is warm.
+ * <p>
+ * LONG and DOUBLE columns read NULL as 0, as Cursor does. TEXT columns are
+ * packed as UTF-16 chars and BLOB columns as bytes into one shared array
+ * per column, with row i spanning getOffsets(column)[i] up to
+ * getOffsets(column)[i + 1]. Use isNull() to tell a NULL from an empty
+ * value in those columns.
+ */
+public final class ColumnBatch {
+    /**
+     * How a column of the query is read into the batch
+     */
+    public enum Type {
+        LONG, DOUBLE, TEXT, BLOB
+    }
+
+    /**
+     * Receives each full batch, and then the final partial one
+     */
+    public interface Consumer {
+        /**
+         * @param batch the rows read so far; only valid during this call
+         * @return true to read the next batch, false to stop the query early
+         */
+        boolean onBatch(ColumnBatch batch);
+    }
+
+    private final int capacity;
+    private final Type[] types;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final int[][] offsets;
+    private final char[][] chars;
+    private final byte[][] bytes;
+    private final boolean[][] nulls;
+    private final CharArrayBuffer charBuffer = new CharArrayBuffer(64);
+    private int rowCount;
+
+    /**
+     * @param capacity the number of rows per batch
+     * @param types    how to read each of the leading columns of the query
+     */
+    public ColumnBatch(int capacity, Type... types) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+
+        if (types.length == 0) {
+            throw new IllegalArgumentException("At least one column type is required");
+        }
+
+        this.capacity = capacity;
+        this.types = types.clone();
+        longs = new long[types.length][];
+        doubles = new double[types.length][];
+        offsets = new int[types.length][];
+        chars = new char[types.length][];
+        bytes = new byte[types.length][];
+        nulls = new boolean[types.length][];
+
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case LONG:
+                    longs[i] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles[i] = new double[capacity];
+                    break;
+                case TEXT:
+                    offsets[i] = new int[capacity + 1];
+                    nulls[i] = new boolean[capacity];
+                    chars[i] = new char[capacity * 16];
+                    break;
+                case BLOB:
+                    offsets[i] = new int[capacity + 1];
+                    nulls[i] = new boolean[capacity];
+                    bytes[i] = new byte[capacity * 16];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of rows per batch
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of columns read into this batch
+     */
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    /**
+     * @return the number of rows in the current batch
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param row    the row index within the batch
+     * @param column the index of a TEXT or BLOB column
+     * @return true if the column's value in this row was NULL
+     */
+    public boolean isNull(int row, int column) {
+        getOffsets(column);
+
+        return nulls[column][row];
+    }
+
+    /**
+     * @param column the index of a LONG column
+     * @return the values, of which the first getRowCount() are valid
+     */
+    public long[] getLongs(int column) {
+        return checked(longs, column, Type.LONG);
+    }
+
+    /**
+     * @param column the index of a DOUBLE column
+     * @return the values, of which the first getRowCount() are valid
+     */
+    public double[] getDoubles(int column) {
+        return checked(doubles, column, Type.DOUBLE);
+    }
+
+    /**
+     * @param column the index of a TEXT column
+     * @return the packed characters of all rows of the batch
+     */
+    public char[] getChars(int column) {
+        return checked(chars, column, Type.TEXT);
+    }
+
+    /**
+     * @param column the index of a BLOB column
+     * @return the packed bytes of all rows of the batch
+     */
+    public byte[] getBytes(int column) {
+        return checked(bytes, column, Type.BLOB);
+    }
+
+    /**
+     * @param column the index of a TEXT or BLOB column
+     * @return getRowCount() + 1 offsets into getChars() or getBytes()
+     */
+    public int[] getOffsets(int column) {
+        if (offsets[column] == null) {
+            throw new IllegalArgumentException("Column " + column + " is " + types[column]);
+        }
+
+        return offsets[column];
+    }
+
+    /**
+     * Convenience for TEXT columns; this allocates a String.
+     *
+     * @param row    the row index within the batch
+     * @param column the index of a TEXT column
+     * @return the value of the column in the row, or null
+     */
+    public String getString(int row, int column) {
+        char[] text = getChars(column);
+
+        if (nulls[column][row]) {
+            return null;
+        }
+
+        int start = offsets[column][row];
+
+        return new String(text, start, offsets[column][row + 1] - start);
+    }
+
+    private <T> T checked(T[] arrays, int column, Type type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Column " + column + " is " + types[column]);
+        }
+
+        return arrays[column];
+    }
+
+    void clear() {
+        rowCount = 0;
+    }
+
+    boolean isFull() {
+        return rowCount == capacity;
+    }
+
+    /**
+     * Appends the current row of the cursor to this batch
+     */
+    void append(Cursor cursor) {
+        int row = rowCount;
+
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case LONG:
+                    longs[i][row] = cursor.getLong(i);
+                    break;
+                case DOUBLE:
+                    doubles[i][row] = cursor.getDouble(i);
+                    break;
+                case TEXT:
+                    appendText(cursor, row, i);
+                    break;
+                case BLOB:
+                    appendBlob(cursor, row, i);
+                    break;
+            }
+        }
+
+        rowCount++;
+    }
+
+    private void appendText(Cursor cursor, int row, int column) {
+        int start = (row == 0) ? 0 : offsets[column][row];
+        boolean isNull = cursor.getType(column) == Cursor.FIELD_TYPE_NULL;
+        int length = 0;
+
+        nulls[column][row] = isNull;
+
+        if (!isNull) {
+            cursor.copyStringToBuffer(column, charBuffer);
+            length = charBuffer.sizeCopied;
+
+            if (start + length > chars[column].length) {
+                chars[column] = grow(chars[column], start + length);
+            }
+
+            System.arraycopy(charBuffer.data, 0, chars[column], start, length);
+        }
+
+        offsets[column][row] = start;
+        offsets[column][row + 1] = start + length;
+    }
+
+    private void appendBlob(Cursor cursor, int row, int column) {
+        int start = (row == 0) ? 0 : offsets[column][row];
+        byte[] value = cursor.getBlob(column);
+        int length = (value == null) ? 0 : value.length;
+
+        nulls[column][row] = (value == null);
+
+        if (length > 0) {
+            if (start + length > bytes[column].length) {
+                bytes[column] = grow(bytes[column], start + length);
+            }
+
+            System.arraycopy(value, 0, bytes[column], start, length);
+        }
+
+        offsets[column][row] = start;
+        offsets[column][row + 1] = start + length;
+    }
+
+    private static char[] grow(char[] array, int needed) {
+        char[] result = new char[Math.max(needed, array.length * 2)];
+
+        System.arraycopy(array, 0, result, 0, array.length);
+
+        return result;
+    }
+
+    private static byte[] grow(byte[] array, int needed) {
+        byte[] result = new byte[Math.max(needed, array.length * 2)];
+
+        System.arraycopy(array, 0, result, 0, array.length);
+
+        return result;
+    }
+}
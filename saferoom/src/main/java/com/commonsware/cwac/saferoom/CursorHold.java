@@ -0,0 +1,68 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.os.CancellationSignal;
+
+/**
+ * What a cursor holds from when it is created until it is closed: a pin on
+ * the AutoCloser, so that its connection stays open while it can still fill
+ * its window, and a hold on its reader, so that other queries prefer the
+ * readers that are free. A query with a timeout also leaves a listener on
+ * the caller's CancellationSignal for as long as its cursor is open.
+ */
+final class CursorHold {
+    private final AutoCloser autoCloser;
+    private final ReaderPool pool;
+    private final int reader;
+    private final CancellationSignal forwarding;
+
+    /**
+     * @param autoCloser the auto-closer to pin, or null if there is none
+     * @param pool       the pool of the reader that the cursor reads from,
+     *                   or null if it reads from the writer
+     * @param reader     the index of that reader in the pool
+     * @param forwarding the caller's signal, whose OnCancelListener is
+     *                   cleared once the cursor is closed, or null
+     */
+    CursorHold(AutoCloser autoCloser, ReaderPool pool, int reader,
+               CancellationSignal forwarding) {
+        this.autoCloser = autoCloser;
+        this.pool = pool;
+        this.reader = reader;
+        this.forwarding = forwarding;
+    }
+
+    void acquire() {
+        if (autoCloser != null) {
+            autoCloser.pinAgain();
+        }
+
+        if (pool != null) {
+            pool.retain(reader);
+        }
+    }
+
+    void release() {
+        if (forwarding != null) {
+            forwarding.setOnCancelListener(null);
+        }
+
+        if (pool != null) {
+            pool.release(reader);
+        }
+
+        if (autoCloser != null) {
+            autoCloser.unpin();
+        }
+    }
+}
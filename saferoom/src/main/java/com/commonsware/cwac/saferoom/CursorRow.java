@@ -0,0 +1,65 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.database.Cursor;
+
+/**
+ * RowVisitor.Row over the current position of a Cursor
+ */
+final class CursorRow implements RowVisitor.Row {
+    private final Cursor cursor;
+
+    CursorRow(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return cursor.getColumnCount();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return cursor.getColumnName(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return cursor.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return cursor.isNull(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return cursor.getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return cursor.getDouble(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return cursor.getString(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return cursor.getBlob(column);
+    }
+}
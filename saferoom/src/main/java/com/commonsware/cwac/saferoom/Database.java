@@ -17,52 +17,135 @@ package com.commonsware.cwac.saferoom;
 import static java.nio.charset.StandardCharsets.*;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteTransactionListener;
 import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.Editable;
-import android.text.TextUtils;
 import android.util.Pair;
+import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
 import androidx.sqlite.db.SimpleSQLiteQuery;
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteProgram;
 import androidx.sqlite.db.SupportSQLiteQuery;
 import androidx.sqlite.db.SupportSQLiteStatement;
 
-import net.zetetic.database.sqlcipher.SQLiteCursor;
-
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 
 /**
- * A SupportSQLiteDatabase implementation that delegates to a SQLCipher
- * for Android implementation of SQLiteDatabase
+ * A SupportSQLiteDatabase implementation that delegates to a connection
+ * from a SqlBackend, which is SQLCipher for Android outside of tests
  */
 class Database implements SupportSQLiteDatabase {
-    private static final String[] CONFLICT_VALUES = new String[]
-            {"", " OR ROLLBACK ", " OR ABORT ", " OR FAIL ", " OR IGNORE ", " OR REPLACE "};
+    // SQLCipher's default and maximum for the per-connection
+    // prepared-statement cache
+    private static final int DEFAULT_SQL_CACHE_SIZE = 25;
+    private static final int MAX_SQL_CACHE_SIZE = 100;
 
-    private final net.zetetic.database.sqlcipher.SQLiteDatabase safeDb;
+    private volatile SqlConnection safeDb;
     private final Helper.OpenHelper openHelper;
-
-    Database(net.zetetic.database.sqlcipher.SQLiteDatabase safeDb) {
-        this(safeDb, null);
+    private final AutoCloser autoCloser;
+    private final StatementCache statementCache;
+    private final long queryTimeoutMillis;
+    private final CheckpointMode checkpointOnClose;
+    private final SqlTemplates sqlTemplates = new SqlTemplates();
+    private final QueryMetrics queryMetrics;
+    private final SlowQueryLog slowQueryLog;
+    private final long groupCommitWindowMillis;
+    private final int groupCommitMaxBatch;
+    private GroupCommitWriter groupCommitWriter;
+    private boolean closed;
+    private volatile ReaderPool readerPool;
+    private volatile CheckpointScheduler checkpointScheduler;
+    private volatile MemoryTrimmer memoryTrimmer;
+    private volatile int maxSqlCacheSize;
+    private volatile Locale locale;
+    private volatile Boolean foreignKeys;
+
+    Database(SqlConnection safeDb) {
+        this(safeDb, null, null);
     }
 
-    Database(net.zetetic.database.sqlcipher.SQLiteDatabase safeDb, Helper.OpenHelper openHelper) {
+    Database(SqlConnection safeDb, Helper.OpenHelper openHelper,
+             SafeHelperFactory.Options options) {
         this.safeDb = safeDb;
         this.openHelper = openHelper;
+
+        if (options != null && options.statementCacheSize > 0) {
+            statementCache = new StatementCache(options.statementCacheSize);
+
+            // statements are prepared again whenever they fall out of the
+            // connection's own cache, so that cache has to be at least as big
+            if (options.statementCacheSize > DEFAULT_SQL_CACHE_SIZE) {
+                maxSqlCacheSize = Math.min(options.statementCacheSize, MAX_SQL_CACHE_SIZE);
+                safeDb.setMaxSqlCacheSize(maxSqlCacheSize);
+            }
+        } else {
+            statementCache = null;
+        }
+
+        queryTimeoutMillis = (options == null) ? 0 : options.queryTimeoutMillis;
+        checkpointOnClose = (options == null) ? null : options.checkpointOnClose;
+        queryMetrics = (options != null && options.queryMetricsEnabled) ? new QueryMetrics() : null;
+
+        if (options != null && options.slowQueryThresholdMillis > 0) {
+            slowQueryLog = new SlowQueryLog(this, options.slowQueryThresholdMillis,
+                    options.slowQueryLogCapacity);
+        } else {
+            slowQueryLog = null;
+        }
+
+        groupCommitWindowMillis = (options == null) ? 0 : options.groupCommitWindowMillis;
+        groupCommitMaxBatch = (options == null) ? 0 : options.groupCommitMaxBatch;
+
+        if (openHelper != null && options != null && options.autoCloseIdleMillis > 0) {
+            autoCloser = new AutoCloser(this, openHelper, options.autoCloseIdleMillis);
+        } else {
+            autoCloser = null;
+        }
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * NOTE: if the statement cache is enabled, the statement may be one that
+     * was compiled earlier and closed, with its bindings cleared
      */
     @NonNull
     @Override
     public SupportSQLiteStatement compileStatement(@NonNull String sql) {
-        return new Statement(safeDb.compileStatement(sql));
+        SqlConnection db = pin();
+
+        try {
+            if (statementCache == null) {
+                return new Statement(db.compileStatement(sql), sql, null, this,
+                        histogramFor(sql));
+            }
+
+            SqlStatement cached = statementCache.acquire(sql);
+
+            if (cached == null) {
+                cached = db.compileStatement(sql);
+            }
+
+            return new Statement(cached, sql, statementCache, this, histogramFor(sql));
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -70,7 +153,14 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void beginTransaction() {
-        safeDb.beginTransaction();
+        SqlConnection db = pin();
+
+        try {
+            db.beginTransaction();
+        } catch (RuntimeException e) {
+            unpin();
+            throw e;
+        }
     }
 
     /**
@@ -78,7 +168,14 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void beginTransactionNonExclusive() {
-        safeDb.beginTransactionNonExclusive();
+        SqlConnection db = pin();
+
+        try {
+            db.beginTransactionNonExclusive();
+        } catch (RuntimeException e) {
+            unpin();
+            throw e;
+        }
     }
 
     /**
@@ -86,23 +183,14 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void beginTransactionWithListener(@NonNull SQLiteTransactionListener listener) {
-        safeDb.beginTransactionWithListener(
-                new net.zetetic.database.sqlcipher.SQLiteTransactionListener() {
-                    @Override
-                    public void onBegin() {
-                        listener.onBegin();
-                    }
+        SqlConnection db = pin();
 
-                    @Override
-                    public void onCommit() {
-                        listener.onCommit();
-                    }
-
-                    @Override
-                    public void onRollback() {
-                        listener.onRollback();
-                    }
-                });
+        try {
+            db.beginTransactionWithListener(listener);
+        } catch (RuntimeException e) {
+            unpin();
+            throw e;
+        }
     }
 
     /**
@@ -110,23 +198,14 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void beginTransactionWithListenerNonExclusive(@NonNull SQLiteTransactionListener listener) {
-        safeDb.beginTransactionWithListenerNonExclusive(
-                new net.zetetic.database.sqlcipher.SQLiteTransactionListener() {
-                    @Override
-                    public void onBegin() {
-                        listener.onBegin();
-                    }
-
-                    @Override
-                    public void onCommit() {
-                        listener.onCommit();
-                    }
+        SqlConnection db = pin();
 
-                    @Override
-                    public void onRollback() {
-                        listener.onRollback();
-                    }
-                });
+        try {
+            db.beginTransactionWithListenerNonExclusive(listener);
+        } catch (RuntimeException e) {
+            unpin();
+            throw e;
+        }
     }
 
     /**
@@ -134,7 +213,21 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void endTransaction() {
-        safeDb.endTransaction();
+        // the transaction pinned the connection in beginTransaction(), and
+        // that pin is released once the transaction is over, whether or not
+        // it commits
+        try {
+            safeDb.endTransaction();
+            onWrite();
+        } catch (IllegalStateException e) {
+            // there was no transaction to end, so no pin to release
+            throw e;
+        } catch (RuntimeException e) {
+            unpin();
+            throw e;
+        }
+
+        unpin();
     }
 
     /**
@@ -150,8 +243,19 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public boolean inTransaction() {
-        if (safeDb.isOpen()) {
-            return (safeDb.inTransaction());
+        SqlConnection db = pinIfOpen();
+
+        if (db == null) {
+            // closed for being idle, so there is no transaction to be in
+            return false;
+        }
+
+        try {
+            if (db.isOpen()) {
+                return (db.inTransaction());
+            }
+        } finally {
+            unpin();
         }
 
         throw new IllegalStateException("You should not be doing this on a closed database");
@@ -162,8 +266,19 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public boolean isDbLockedByCurrentThread() {
-        if (safeDb.isOpen()) {
-            return (safeDb.isDbLockedByCurrentThread());
+        SqlConnection db = pinIfOpen();
+
+        if (db == null) {
+            // closed for being idle, so no thread holds it
+            return false;
+        }
+
+        try {
+            if (db.isOpen()) {
+                return (db.isDbLockedByCurrentThread());
+            }
+        } finally {
+            unpin();
         }
 
         throw new IllegalStateException("You should not be doing this on a closed database");
@@ -174,8 +289,19 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public boolean yieldIfContendedSafely() {
-        if (safeDb.isOpen()) {
-            return (safeDb.yieldIfContendedSafely());
+        SqlConnection db = pinIfOpen();
+
+        if (db == null) {
+            // closed for being idle, so there is no transaction to yield
+            return false;
+        }
+
+        try {
+            if (db.isOpen()) {
+                return (db.yieldIfContendedSafely());
+            }
+        } finally {
+            unpin();
         }
 
         throw new IllegalStateException("You should not be doing this on a closed database");
@@ -186,8 +312,19 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public boolean yieldIfContendedSafely(long sleepAfterYieldDelay) {
-        if (safeDb.isOpen()) {
-            return (safeDb.yieldIfContendedSafely(sleepAfterYieldDelay));
+        SqlConnection db = pinIfOpen();
+
+        if (db == null) {
+            // closed for being idle, so there is no transaction to yield
+            return false;
+        }
+
+        try {
+            if (db.isOpen()) {
+                return (db.yieldIfContendedSafely(sleepAfterYieldDelay));
+            }
+        } finally {
+            unpin();
         }
 
         throw new IllegalStateException("You should not be doing this on a closed database");
@@ -198,7 +335,13 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public int getVersion() {
-        return (safeDb.getVersion());
+        SqlConnection db = pin();
+
+        try {
+            return (db.getVersion());
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -206,7 +349,13 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void setVersion(int version) {
-        safeDb.setVersion(version);
+        SqlConnection db = pin();
+
+        try {
+            db.setVersion(version);
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -214,7 +363,13 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public long getMaximumSize() {
-        return (safeDb.getMaximumSize());
+        SqlConnection db = pin();
+
+        try {
+            return (db.getMaximumSize());
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -222,7 +377,13 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public long setMaximumSize(long numBytes) {
-        return (safeDb.setMaximumSize(numBytes));
+        SqlConnection db = pin();
+
+        try {
+            return (db.setMaximumSize(numBytes));
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -230,7 +391,13 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public long getPageSize() {
-        return (safeDb.getPageSize());
+        SqlConnection db = pin();
+
+        try {
+            return (db.getPageSize());
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -238,7 +405,13 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void setPageSize(long numBytes) {
-        safeDb.setPageSize(numBytes);
+        SqlConnection db = pin();
+
+        try {
+            db.setPageSize(numBytes);
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -270,200 +443,854 @@ class Database implements SupportSQLiteDatabase {
 
     /**
      * {@inheritDoc}
+     * <p>
+     * NOTE: as with SQLiteDatabase itself, the signal's OnCancelListener is
+     * taken over, so do not set a listener of your own on a signal that you
+     * pass in here. The signal applies to every fill of the cursor's window,
+     * not only the first. With a query timeout, the listener stays set until
+     * the cursor is closed.
      */
     @NonNull
     @Override
     public Cursor query(final SupportSQLiteQuery supportQuery, CancellationSignal signal) {
-        BindingsRecorder hack = new BindingsRecorder();
+        if (queryMetrics == null && slowQueryLog == null) {
+            return runQuery(supportQuery, signal);
+        }
 
-        supportQuery.bindTo(hack);
+        long start = System.nanoTime();
+        Cursor result = fillWindow(runQuery(supportQuery, signal));
 
-        return safeDb.rawQueryWithFactory(
-                (db, masterQuery, editTable, query) -> {
-                    supportQuery.bindTo(new Program(query));
-                    return new SQLiteCursor(masterQuery, editTable, query);
-                }, supportQuery.getSql(), hack.getBindings(), null);
-    }
+        recordQuery(supportQuery, System.nanoTime() - start, result.getCount());
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public long insert(@NonNull String table, int conflictAlgorithm, @NonNull ContentValues values) {
-        return (safeDb.insertWithOnConflict(table, null, values, conflictAlgorithm));
+        return result;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public int delete(@NonNull String table, String whereClause, Object[] whereArgs) {
-        String query = "DELETE FROM " + table
-                + (TextUtils.isEmpty(whereClause) ? "" : " WHERE " + whereClause);
+    private void recordQuery(SupportSQLiteQuery supportQuery, long durationNanos, long rows) {
+        if (queryMetrics != null) {
+            queryMetrics.histogramFor(supportQuery.getSql()).record(durationNanos);
+        }
 
-        try (SupportSQLiteStatement statement = compileStatement(query)) {
-            SimpleSQLiteQuery.bind(statement, whereArgs);
-            return statement.executeUpdateDelete();
-        } catch (Exception e) {
-            throw new RuntimeException("Exception attempting to close statement", e);
+        if (slowQueryLog != null && slowQueryLog.isSlow(durationNanos)) {
+            slowQueryLog.record(supportQuery.getSql(), BindTypes.of(supportQuery), durationNanos,
+                    rows);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Runs the query and hands each row to the visitor in one forward pass,
+     * reusing a single Row for all of them. Stopping early only skips the
+     * remaining visits and window fills; the first fill has already stepped
+     * through every row to count them.
+     *
+     * @return the number of rows visited
      */
-    @Override
-    public int update(@NonNull String table, int conflictAlgorithm, @NonNull ContentValues values,
-                      String whereClause, Object[] whereArgs) {
-        // taken from SQLiteDatabase class.
-        if (values.size() == 0) {
-            throw new IllegalArgumentException("Empty values");
-        }
-        StringBuilder sql = new StringBuilder(120);
-        sql.append("UPDATE ");
-        sql.append(CONFLICT_VALUES[conflictAlgorithm]);
-        sql.append(table);
-        sql.append(" SET ");
-
-        // move all bind args to one array
-        int setValuesSize = values.size();
-        int bindArgsSize = (whereArgs == null) ? setValuesSize : (setValuesSize + whereArgs.length);
-        Object[] bindArgs = new Object[bindArgsSize];
-        int i = 0;
-        for (String colName : values.keySet()) {
-            sql.append((i > 0) ? "," : "");
-            sql.append(colName);
-            bindArgs[i++] = values.get(colName);
-            sql.append("=?");
-        }
-        if (whereArgs != null) {
-            for (i = setValuesSize; i < bindArgsSize; i++) {
-                bindArgs[i] = whereArgs[i - setValuesSize];
-            }
-        }
-        if (!TextUtils.isEmpty(whereClause)) {
-            sql.append(" WHERE ");
-            sql.append(whereClause);
-        }
-        try (SupportSQLiteStatement statement = compileStatement(sql.toString())) {
-            SimpleSQLiteQuery.bind(statement, bindArgs);
-            return statement.executeUpdateDelete();
-        } catch (Exception e) {
-            throw new RuntimeException("Exception attempting to close statement", e);
+    long forEachRow(SupportSQLiteQuery supportQuery, RowVisitor visitor) {
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try (Cursor cursor = rawQuery(supportQuery, null)) {
+            RowVisitor.Row row = new CursorRow(cursor);
+
+            while (cursor.moveToNext()) {
+                rows++;
+
+                if (!visitor.visit(row)) {
+                    break;
+                }
+            }
         }
-    }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void execSQL(@NonNull String sql) throws SQLException {
-        safeDb.execSQL(sql);
-    }
+        recordQuery(supportQuery, System.nanoTime() - start, rows);
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void execSQL(@NonNull String sql, @NonNull Object[] bindArgs) throws SQLException {
-        safeDb.execSQL(sql, bindArgs);
+        return rows;
     }
 
     /**
-     * {@inheritDoc}
+     * Runs the query and reads its leading columns into the batch, handing
+     * the batch to the consumer each time it fills and once more for the
+     * final partial batch.
+     *
+     * @return the number of rows read
      */
-    @Override
-    public boolean isReadOnly() {
-        return (safeDb.isReadOnly());
-    }
+    long readColumns(SupportSQLiteQuery supportQuery, ColumnBatch batch,
+                     ColumnBatch.Consumer consumer) {
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try (Cursor cursor = rawQuery(supportQuery, null)) {
+            if (cursor.getColumnCount() < batch.getColumnCount()) {
+                throw new IllegalArgumentException("Batch has " + batch.getColumnCount()
+                        + " columns but the query returns " + cursor.getColumnCount());
+            }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public boolean isOpen() {
-        return (safeDb.isOpen());
-    }
+            boolean more = true;
 
-    /**
-     * {@inheritDoc}
-     */
+            batch.clear();
 
-    @Override
-    public boolean needUpgrade(int newVersion) {
-        return (safeDb.needUpgrade(newVersion));
+            while (more && cursor.moveToNext()) {
+                batch.append(cursor);
+                rows++;
+
+                if (batch.isFull()) {
+                    more = consumer.onBatch(batch);
+                    batch.clear();
+                }
+            }
+
+            if (batch.getRowCount() > 0) {
+                consumer.onBatch(batch);
+                batch.clear();
+            }
+        }
+
+        recordQuery(supportQuery, System.nanoTime() - start, rows);
+
+        return rows;
     }
 
     /**
-     * {@inheritDoc}
+     * Runs a query for a single value on a compiled statement, from the
+     * statement cache when there is one, without a Cursor or CursorWindow.
+     * Queries with a timeout go through a Cursor instead, as only a Cursor
+     * can be cancelled.
+     *
+     * @return the first column of the first row, as a long
+     * @throws SQLiteDoneException if there are no rows
      */
-    @Override
-    public String getPath() {
-        return (safeDb.getPath());
+    long queryLong(SupportSQLiteQuery supportQuery) {
+        long start = startTiming();
+
+        if (hasTimeout(supportQuery)) {
+            try (Cursor c = firstRow(supportQuery)) {
+                long result = c.getLong(0);
+
+                recordScalar(supportQuery, start);
+
+                return result;
+            }
+        }
+
+        SqlConnection db = pin();
+        ReaderPool pool = readersFor(supportQuery);
+        int reader = (pool == null) ? -1 : pool.acquire();
+
+        try {
+            SqlConnection target = (pool == null) ? db : pool.reader(reader);
+            SqlStatement statement = acquireStatement(target, supportQuery);
+
+            try {
+                long result = statement.simpleQueryForLong();
+
+                recordScalar(supportQuery, start);
+
+                return result;
+            } finally {
+                releaseStatement(target, supportQuery.getSql(), statement);
+            }
+        } finally {
+            if (pool != null) {
+                pool.release(reader);
+            }
+
+            unpin();
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * As queryLong(), for a String
+     *
+     * @return the first column of the first row, as a String, or null
+     * @throws SQLiteDoneException if there are no rows
      */
-    @Override
-    public void setLocale(@NonNull Locale locale) {
-        safeDb.setLocale(locale);
+    String queryString(SupportSQLiteQuery supportQuery) {
+        long start = startTiming();
+
+        if (hasTimeout(supportQuery)) {
+            try (Cursor c = firstRow(supportQuery)) {
+                String result = c.getString(0);
+
+                recordScalar(supportQuery, start);
+
+                return result;
+            }
+        }
+
+        SqlConnection db = pin();
+        ReaderPool pool = readersFor(supportQuery);
+        int reader = (pool == null) ? -1 : pool.acquire();
+
+        try {
+            SqlConnection target = (pool == null) ? db : pool.reader(reader);
+            SqlStatement statement = acquireStatement(target, supportQuery);
+
+            try {
+                String result = statement.simpleQueryForString();
+
+                recordScalar(supportQuery, start);
+
+                return result;
+            } finally {
+                releaseStatement(target, supportQuery.getSql(), statement);
+            }
+        } finally {
+            if (pool != null) {
+                pool.release(reader);
+            }
+
+            unpin();
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Runs a query for a single BLOB. A compiled statement can only return
+     * a BLOB through a file descriptor, which costs more than a Cursor
+     * window, so this uses a Cursor.
+     *
+     * @return the first column of the first row, as a byte array, or null
+     * @throws SQLiteDoneException if there are no rows
      */
-    @Override
-    public void setMaxSqlCacheSize(int cacheSize) {
-        safeDb.setMaxSqlCacheSize(cacheSize);
+    byte[] queryBlob(SupportSQLiteQuery supportQuery) {
+        long start = startTiming();
+
+        try (Cursor c = firstRow(supportQuery)) {
+            byte[] result = c.getBlob(0);
+
+            recordScalar(supportQuery, start);
+
+            return result;
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Runs a query and hands its first row, if any, to the visitor, whose
+     * return value is ignored.
+     *
+     * @return true if there was a row, false otherwise
      */
-    @Override
-    public void setForeignKeyConstraintsEnabled(boolean enable) {
-        safeDb.setForeignKeyConstraintsEnabled(enable);
+    boolean queryRow(SupportSQLiteQuery supportQuery, RowVisitor visitor) {
+        long start = startTiming();
+
+        try (Cursor c = runQuery(supportQuery, null)) {
+            if (!c.moveToFirst()) {
+                return false;
+            }
+
+            visitor.visit(new CursorRow(c));
+            recordScalar(supportQuery, start);
+
+            return true;
+        }
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public boolean enableWriteAheadLogging() {
-        return safeDb.enableWriteAheadLogging();
+    private boolean hasTimeout(SupportSQLiteQuery supportQuery) {
+        if (supportQuery instanceof TimedQuery) {
+            return ((TimedQuery) supportQuery).timeoutMillis > 0;
+        }
+
+        return queryTimeoutMillis > 0;
     }
 
     /**
-     * {@inheritDoc}
+     * @return a Cursor positioned on the first row
+     * @throws SQLiteDoneException if there are no rows
      */
-    @Override
-    public void disableWriteAheadLogging() {
-        safeDb.disableWriteAheadLogging();
+    private Cursor firstRow(SupportSQLiteQuery supportQuery) {
+        Cursor result = runQuery(supportQuery, null);
+
+        if (!result.moveToFirst()) {
+            result.close();
+            throw new SQLiteDoneException();
+        }
+
+        return result;
     }
 
     /**
-     * {@inheritDoc}
+     * @return a statement for the query, with its arguments bound, from the
+     * statement cache if it is for the writer and the cache has one;
+     * callers hold a pin and hand it back via releaseStatement()
      */
-    @Override
-    public boolean isWriteAheadLoggingEnabled() {
-        return safeDb.isWriteAheadLoggingEnabled();
+    private SqlStatement acquireStatement(SqlConnection target,
+                                          SupportSQLiteQuery supportQuery) {
+        String sql = supportQuery.getSql();
+        SqlStatement result = null;
+
+        if (target == safeDb && statementCache != null) {
+            result = statementCache.acquire(sql);
+        }
+
+        if (result == null) {
+            result = target.compileStatement(sql);
+        }
+
+        try {
+            supportQuery.bindTo(result);
+        } catch (RuntimeException e) {
+            releaseStatement(target, sql, result);
+            throw e;
+        }
+
+        return result;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public List<Pair<String, String>> getAttachedDbs() {
-        return (safeDb.getAttachedDbs());
+    private void releaseStatement(SqlConnection target, String sql, SqlStatement statement) {
+        statement.clearBindings();
+
+        // reader statements are not cached, as the cache belongs to the writer
+        if (target != safeDb || statementCache == null || !statementCache.release(sql, statement)) {
+            statement.close();
+        }
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public boolean isDatabaseIntegrityOk() {
-        return (safeDb.isDatabaseIntegrityOk());
+    private long startTiming() {
+        return (queryMetrics == null && slowQueryLog == null) ? 0 : System.nanoTime();
+    }
+
+    private void recordScalar(SupportSQLiteQuery supportQuery, long start) {
+        if (queryMetrics != null || slowQueryLog != null) {
+            recordQuery(supportQuery, System.nanoTime() - start, 1);
+        }
+    }
+
+    private Cursor runQuery(SupportSQLiteQuery supportQuery, CancellationSignal signal) {
+        long timeoutMillis = queryTimeoutMillis;
+
+        if (supportQuery instanceof TimedQuery) {
+            timeoutMillis = ((TimedQuery) supportQuery).timeoutMillis;
+        }
+
+        if (timeoutMillis <= 0) {
+            return rawQuery(supportQuery, signal);
+        }
+
+        // SQLCipher owns the listener of the signal that it is given, so the
+        // caller's signal and the timer both cancel a signal of our own. The
+        // cursor keeps using that signal each time it refills its window, so
+        // the listener on the caller's signal stays until the cursor closes,
+        // just as the caller's signal would apply to every refill if
+        // SQLCipher had been given it directly.
+        final CancellationSignal timeoutSignal = new CancellationSignal();
+
+        if (signal != null) {
+            signal.throwIfCanceled();
+            signal.setOnCancelListener(timeoutSignal::cancel);
+        }
+
+        ScheduledFuture<?> timer =
+                BackgroundScheduler.schedule(timeoutSignal::cancel, timeoutMillis);
+        Cursor result;
+
+        try {
+            result = fillWindow(rawQuery(supportQuery, timeoutSignal, signal));
+        } catch (RuntimeException e) {
+            timer.cancel(false);
+
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+
+            throw e;
+        }
+
+        // if the timer has started, it may cancel the signal at any moment,
+        // which would fail some later refill of the window, so the query
+        // counts as timed out even though it finished
+        if (!timer.cancel(false) || timeoutSignal.isCanceled()) {
+            result.close();
+
+            throw new OperationCanceledException();
+        }
+
+        return result;
+    }
+
+    /**
+     * The first fill of the window steps through the whole result to count
+     * it, so that is where the query actually runs. Timeouts and latency
+     * metrics need that work to happen before query() returns.
+     * <p>
+     * This makes query() scan every row, even for a caller that would only
+     * have read the first few; rows past the first window are stepped
+     * through again when the cursor moves to them.
+     */
+    private static Cursor fillWindow(Cursor result) {
+        try {
+            result.getCount();
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a query on the writer connection, even if there is a reader pool,
+     * for PRAGMAs that need a writable connection.
+     */
+    Cursor queryOnWriter(SupportSQLiteQuery supportQuery) {
+        SqlConnection db = pin();
+
+        try {
+            return rawQuery(db, supportQuery, null, null, -1);
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * Runs per-connection SQL on the writer connection itself. A query() of
+     * a PRAGMA that SQLite sees as read-only may be handed to another
+     * connection in the WAL-mode connection pool, so settings that have to
+     * hold for the connection doing the writes go through here.
+     */
+    void rawExecOnWriter(String sql) {
+        SqlConnection db = pin();
+
+        try {
+            db.rawExecSQL(sql);
+        } finally {
+            unpin();
+        }
+    }
+
+    private Cursor rawQuery(SupportSQLiteQuery supportQuery, CancellationSignal signal) {
+        return rawQuery(supportQuery, signal, null);
+    }
+
+    /**
+     * @param forwarding a signal whose OnCancelListener cancels signal, to
+     *                   be cleared when the cursor closes, or null
+     */
+    private Cursor rawQuery(SupportSQLiteQuery supportQuery, CancellationSignal signal,
+                            CancellationSignal forwarding) {
+        SqlConnection db = pin();
+        ReaderPool pool = readersFor(supportQuery);
+
+        if (pool == null) {
+            try {
+                return rawQuery(db, supportQuery, signal, null, -1, forwarding);
+            } finally {
+                unpin();
+            }
+        }
+
+        int reader = pool.acquire();
+
+        try {
+            return rawQuery(pool.reader(reader), supportQuery, signal, pool, reader, forwarding);
+        } finally {
+            pool.release(reader);
+            unpin();
+        }
+    }
+
+    /**
+     * Runs the query on the target connection. Callers hold a pin, and their
+     * reader if the target is one, while this runs; the cursor takes holds of
+     * its own, kept until it is closed.
+     */
+    private Cursor rawQuery(SqlConnection target, SupportSQLiteQuery supportQuery,
+                            CancellationSignal signal, ReaderPool pool, int reader) {
+        return rawQuery(target, supportQuery, signal, pool, reader, null);
+    }
+
+    private Cursor rawQuery(SqlConnection target, SupportSQLiteQuery supportQuery,
+                            CancellationSignal signal, ReaderPool pool, int reader,
+                            CancellationSignal forwarding) {
+        CursorHold hold = (autoCloser == null && pool == null && forwarding == null)
+                ? null : new CursorHold(autoCloser, pool, reader, forwarding);
+
+        return target.query(supportQuery, signal, hold);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long insert(@NonNull String table, int conflictAlgorithm, @NonNull ContentValues values) {
+        SqlConnection db = pin();
+
+        try {
+            long result = db.insertWithOnConflict(table, null, values, conflictAlgorithm);
+
+            onWrite();
+
+            return (result);
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * Inserts all of the rows in one transaction, compiling one statement
+     * for each distinct set of columns and reusing it for every row with
+     * that set.
+     */
+    BatchInsertResult insertAll(String table, int conflictAlgorithm,
+                                Iterable<ContentValues> rows) {
+        long start = System.nanoTime();
+        long[] rowIds = new long[(rows instanceof Collection) ? ((Collection<?>) rows).size() : 16];
+        int count = 0;
+        Map<String, SqlStatement> statements = new HashMap<>();
+        Set<String> lastColumnSet = null;
+        String[] columns = null;
+        SqlStatement statement = null;
+
+        beginTransaction();
+
+        try {
+            for (ContentValues values : rows) {
+                if (values.size() == 0) {
+                    throw new IllegalArgumentException("Empty values");
+                }
+
+                // rows usually share their columns, so check the last set first;
+                // columns are sorted, as ContentValues does not keep their order
+                Set<String> columnSet = values.keySet();
+
+                if (!columnSet.equals(lastColumnSet)) {
+                    columns = columnSet.toArray(new String[0]);
+                    Arrays.sort(columns);
+
+                    String sql = SqlTemplates.insert(table, conflictAlgorithm, columns);
+
+                    statement = statements.get(sql);
+
+                    if (statement == null) {
+                        statement = safeDb.compileStatement(sql);
+                        statements.put(sql, statement);
+                    }
+
+                    lastColumnSet = new HashSet<>(columnSet);
+                }
+
+                for (int i = 0; i < columns.length; i++) {
+                    bindValue(statement, i + 1, values.get(columns[i]));
+                }
+
+                if (count == rowIds.length) {
+                    rowIds = Arrays.copyOf(rowIds, Math.max(count * 2, 16));
+                }
+
+                rowIds[count++] = statement.executeInsert();
+                statement.clearBindings();
+            }
+
+            setTransactionSuccessful();
+        } finally {
+            for (SqlStatement compiled : statements.values()) {
+                compiled.close();
+            }
+
+            endTransaction();
+        }
+
+        if (count != rowIds.length) {
+            rowIds = Arrays.copyOf(rowIds, count);
+        }
+
+        return new BatchInsertResult(rowIds, System.nanoTime() - start);
+    }
+
+    static void bindValue(SupportSQLiteProgram statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else {
+            // same rule as SimpleSQLiteQuery.bind()
+            throw new IllegalArgumentException("Cannot bind " + value + " at index " + index
+                    + " Supported types: null, byte[], float, double, long, int, short, byte,"
+                    + " string");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int delete(@NonNull String table, String whereClause, Object[] whereArgs) {
+        String query = sqlTemplates.delete(table, whereClause);
+
+        try (SupportSQLiteStatement statement = compileStatement(query)) {
+            SimpleSQLiteQuery.bind(statement, whereArgs);
+            return statement.executeUpdateDelete();
+        } catch (Exception e) {
+            throw new RuntimeException("Exception attempting to close statement", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int update(@NonNull String table, int conflictAlgorithm, @NonNull ContentValues values,
+                      String whereClause, Object[] whereArgs) {
+        if (values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        String[] columns = values.keySet().toArray(new String[0]);
+        String sql = sqlTemplates.update(table, conflictAlgorithm, columns, whereClause);
+
+        // values and where arguments are bound straight into the statement,
+        // rather than copied into one array first
+        try (SupportSQLiteStatement statement = compileStatement(sql)) {
+            for (int i = 0; i < columns.length; i++) {
+                bindValue(statement, i + 1, values.get(columns[i]));
+            }
+
+            if (whereArgs != null) {
+                for (int i = 0; i < whereArgs.length; i++) {
+                    bindValue(statement, columns.length + i + 1, whereArgs[i]);
+                }
+            }
+
+            return statement.executeUpdateDelete();
+        } catch (Exception e) {
+            throw new RuntimeException("Exception attempting to close statement", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execSQL(@NonNull String sql) throws SQLException {
+        LatencyHistogram histogram = histogramFor(sql);
+        SqlConnection db = pin();
+
+        try {
+            long start = (histogram == null) ? 0 : System.nanoTime();
+
+            db.execSQL(sql);
+
+            if (histogram != null) {
+                histogram.record(System.nanoTime() - start);
+            }
+
+            onWrite();
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execSQL(@NonNull String sql, @NonNull Object[] bindArgs) throws SQLException {
+        LatencyHistogram histogram = histogramFor(sql);
+        SqlConnection db = pin();
+
+        try {
+            long start = (histogram == null) ? 0 : System.nanoTime();
+
+            db.execSQL(sql, bindArgs);
+
+            if (histogram != null) {
+                histogram.record(System.nanoTime() - start);
+            }
+
+            onWrite();
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        SqlConnection db = pin();
+
+        try {
+            return (db.isReadOnly());
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        if (autoCloser != null) {
+            // still open, as far as callers are concerned, while the
+            // connection is closed for being idle
+            return !isClosed();
+        }
+
+        return (safeDb.isOpen());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+
+    @Override
+    public boolean needUpgrade(int newVersion) {
+        SqlConnection db = pin();
+
+        try {
+            return (db.needUpgrade(newVersion));
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPath() {
+        return (safeDb.getPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLocale(@NonNull Locale locale) {
+        SqlConnection db = pin();
+
+        try {
+            db.setLocale(locale);
+            this.locale = locale;
+
+            ReaderPool pool = readerPool;
+
+            if (pool != null) {
+                pool.setLocale(locale);
+            }
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxSqlCacheSize(int cacheSize) {
+        SqlConnection db = pin();
+
+        try {
+            db.setMaxSqlCacheSize(cacheSize);
+            maxSqlCacheSize = cacheSize;
+
+            ReaderPool pool = readerPool;
+
+            if (pool != null) {
+                pool.setMaxSqlCacheSize(cacheSize);
+            }
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setForeignKeyConstraintsEnabled(boolean enable) {
+        SqlConnection db = pin();
+
+        try {
+            db.setForeignKeyConstraintsEnabled(enable);
+            foreignKeys = enable;
+
+            ReaderPool pool = readerPool;
+
+            if (pool != null) {
+                pool.setForeignKeyConstraintsEnabled(enable);
+            }
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean enableWriteAheadLogging() {
+        SqlConnection db = pin();
+
+        try {
+            return (db.enableWriteAheadLogging());
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disableWriteAheadLogging() {
+        SqlConnection db = pin();
+
+        try {
+            // SQLite cannot leave WAL mode while readers are open
+            setReaderPool(null);
+            db.disableWriteAheadLogging();
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isWriteAheadLoggingEnabled() {
+        SqlConnection db = pin();
+
+        try {
+            return (db.isWriteAheadLoggingEnabled());
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Pair<String, String>> getAttachedDbs() {
+        SqlConnection db = pin();
+
+        try {
+            return (db.getAttachedDbs());
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDatabaseIntegrityOk() {
+        SqlConnection db = pin();
+
+        try {
+            return (db.isDatabaseIntegrityOk());
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -471,21 +1298,455 @@ class Database implements SupportSQLiteDatabase {
      */
     @Override
     public void close() {
-        // Checkpoint WAL if enabled to ensure all data is written
-        if (safeDb.isOpen() && safeDb.isWriteAheadLoggingEnabled()) {
+        GroupCommitWriter writer;
+
+        synchronized (this) {
+            closed = true;
+            writer = groupCommitWriter;
+            groupCommitWriter = null;
+        }
+
+        // after this, nothing reopens a connection that was closed for being
+        // idle
+        if (autoCloser != null) {
+            autoCloser.close();
+        }
+
+        MemoryTrimmer trimmer = memoryTrimmer;
+
+        if (trimmer != null) {
+            memoryTrimmer = null;
+            trimmer.close();
+        }
+
+        if (writer != null) {
+            writer.close();
+        }
+
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+        }
+
+        CheckpointScheduler scheduler = checkpointScheduler;
+
+        if (scheduler != null) {
+            checkpointScheduler = null;
+            scheduler.close();
+        }
+
+        if (statementCache != null) {
+            statementCache.close();
+        }
+
+        setReaderPool(null);
+
+        // SQLite checkpoints the WAL itself when the last connection closes,
+        // and recovers it on the next open if that does not happen, so this
+        // is only done when asked for
+        if (checkpointOnClose != null && safeDb.isOpen() && safeDb.isWriteAheadLoggingEnabled()) {
             try {
-                safeDb.rawExecSQL("PRAGMA wal_checkpoint(FULL);");
+                safeDb.rawExecSQL(checkpointOnClose.toSql());
             } catch (Exception e) {
                 // Ignore checkpoint errors
             }
         }
-        safeDb.close();
+        if (autoCloser == null || !autoCloser.isIdleClosed()) {
+            safeDb.close();
+        }
         // Notify the OpenHelper that the database has been closed
         if (openHelper != null) {
             openHelper.onDatabaseClosed();
         }
     }
 
+    /**
+     * Replaces the reader pool, closing the one it replaces, if any
+     */
+    void setReaderPool(ReaderPool readerPool) {
+        ReaderPool old = this.readerPool;
+
+        configureReaders(readerPool);
+        this.readerPool = readerPool;
+
+        if (old != null && old != readerPool) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return true once close() has been called
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Starts closing the connections when they go unused, if the options ask
+     * for that. Called once the open that created this is done.
+     */
+    void startAutoClose() {
+        if (autoCloser != null) {
+            autoCloser.start();
+        }
+    }
+
+    /**
+     * @return true if the connections are closed for being idle, and will be
+     * reopened on next use
+     */
+    boolean isIdleClosed() {
+        return autoCloser != null && autoCloser.isIdleClosed();
+    }
+
+    /**
+     * @return the writer connection; only stable while the caller holds a
+     * pin
+     */
+    SqlConnection getConnection() {
+        return safeDb;
+    }
+
+    /**
+     * @return the auto-closer for this database, or null if auto-close is
+     * disabled
+     */
+    AutoCloser getAutoCloser() {
+        return autoCloser;
+    }
+
+    /**
+     * Called by the AutoCloser, holding its lock, just before it closes the
+     * writer connection for being idle. Compiled statements and readers
+     * belong to the old connections, so they go too.
+     */
+    void onIdleClose() {
+        if (statementCache != null) {
+            statementCache.evictAll();
+        }
+
+        ReaderPool pool = readerPool;
+
+        if (pool != null) {
+            readerPool = null;
+            pool.close();
+        }
+    }
+
+    /**
+     * Called by the AutoCloser, holding its lock, with the connections that
+     * replace the ones closed for being idle. Settings that were made on the
+     * old connections after the first open are made again on these.
+     */
+    void onReopened(SqlConnection connection,
+                    ReaderPool readerPool) {
+        this.safeDb = connection;
+
+        if (maxSqlCacheSize > 0) {
+            connection.setMaxSqlCacheSize(maxSqlCacheSize);
+        }
+
+        configureReaders(readerPool);
+        this.readerPool = readerPool;
+
+        CheckpointScheduler scheduler = checkpointScheduler;
+
+        if (scheduler != null) {
+            scheduler.configure(connection);
+        }
+
+        MemoryTrimmer trimmer = memoryTrimmer;
+        Integer trimmedCacheSize = (trimmer == null) ? null : trimmer.getTrimmedCacheSize();
+
+        if (trimmedCacheSize != null) {
+            execOnEachConnection("PRAGMA cache_size = " + trimmedCacheSize + ";");
+        }
+    }
+
+    /**
+     * @return the writer connection, reopened first if it was closed for
+     * being idle; each call must be paired with unpin()
+     */
+    private SqlConnection pin() {
+        return (autoCloser == null) ? safeDb : autoCloser.pin();
+    }
+
+    /**
+     * @return the writer connection, or null if it is closed for being idle;
+     * a non-null result must be paired with unpin()
+     */
+    private SqlConnection pinIfOpen() {
+        return (autoCloser == null) ? safeDb : autoCloser.pinIfOpen();
+    }
+
+    private void unpin() {
+        if (autoCloser != null) {
+            autoCloser.unpin();
+        }
+    }
+
+    /**
+     * Queues a write for the group-commit writer, starting that writer on
+     * first use.
+     */
+    <T> Future<T> submitWrite(WriteTask<T> task) {
+        GroupCommitWriter writer;
+
+        synchronized (this) {
+            if (groupCommitMaxBatch == 0) {
+                throw new IllegalStateException(
+                        "Enable group commit via SafeHelperFactory.Options.Builder.setGroupCommit()");
+            }
+
+            if (closed) {
+                throw new IllegalStateException("The database is closed");
+            }
+
+            if (groupCommitWriter == null) {
+                groupCommitWriter =
+                        new GroupCommitWriter(this, groupCommitWindowMillis, groupCommitMaxBatch);
+            }
+
+            writer = groupCommitWriter;
+        }
+
+        return writer.submit(task);
+    }
+
+    /**
+     * Hands WAL checkpoints over to a background thread, per the options.
+     */
+    void startBackgroundCheckpoints(SafeHelperFactory.Options options) {
+        checkpointScheduler = new CheckpointScheduler(this, options);
+    }
+
+    /**
+     * Starts applying the trim policies from the options when the system
+     * asks the app to trim its memory, if there are any. Called once the
+     * open that created this is done.
+     */
+    void startMemoryTrimmer(Context context, SafeHelperFactory.Options options) {
+        if (options != null && !options.trimPolicies.isEmpty()) {
+            memoryTrimmer = new MemoryTrimmer(this, context, options);
+        }
+    }
+
+    /**
+     * Releases memory held by the connections and the statement cache, per
+     * the policy. Connections that are busy are waited for.
+     *
+     * @return false if the connections are closed for being idle, and so
+     * there was nothing to release
+     */
+    boolean trimMemory(TrimPolicy policy) {
+        if (pinIfOpen() == null) {
+            return false;
+        }
+
+        try {
+            // finalizing statements frees their memory, which shrink_memory
+            // can then hand back
+            if (policy.evictStatements && statementCache != null) {
+                statementCache.evictAll();
+            }
+
+            if (policy.cacheSize != null) {
+                execOnEachConnection("PRAGMA cache_size = " + policy.cacheSize + ";");
+            }
+
+            if (policy.shrinkMemory) {
+                execOnEachConnection("PRAGMA shrink_memory;");
+            }
+
+            return true;
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * @return the cache_size of the writer connection, or null if it is
+     * closed for being idle
+     */
+    Integer getCacheSize() {
+        SqlConnection db = pinIfOpen();
+
+        if (db == null) {
+            return null;
+        }
+
+        try (Cursor c = db.query(new SimpleSQLiteQuery("PRAGMA cache_size"), null, null)) {
+            return c.moveToFirst() ? c.getInt(0) : null;
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * Sets cache_size on every connection. Connections closed for being
+     * idle are left alone, as they get the configured size when reopened.
+     */
+    void setCacheSize(int cacheSize) {
+        if (pinIfOpen() == null) {
+            return;
+        }
+
+        try {
+            execOnEachConnection("PRAGMA cache_size = " + cacheSize + ";");
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * Makes the settings on new readers that were made on the writer after
+     * the first open, as setLocale() and the like only reach the readers that
+     * exist when they are called
+     */
+    private void configureReaders(ReaderPool pool) {
+        if (pool == null) {
+            return;
+        }
+
+        Locale locale = this.locale;
+
+        if (locale != null) {
+            pool.setLocale(locale);
+        }
+
+        if (maxSqlCacheSize > 0) {
+            pool.setMaxSqlCacheSize(maxSqlCacheSize);
+        }
+
+        Boolean foreignKeys = this.foreignKeys;
+
+        if (foreignKeys != null) {
+            pool.setForeignKeyConstraintsEnabled(foreignKeys);
+        }
+    }
+
+    /**
+     * Runs per-connection SQL on the writer and on every reader; callers
+     * hold a pin
+     */
+    private void execOnEachConnection(String sql) {
+        safeDb.rawExecSQL(sql);
+
+        ReaderPool pool = readerPool;
+
+        if (pool != null) {
+            pool.execOnEach(sql);
+        }
+    }
+
+    /**
+     * Called after anything that may have written to the database, by a
+     * caller that holds a pin. Writes inside a transaction are only
+     * committed when the outermost transaction ends, so they are ignored
+     * until then.
+     */
+    void onWrite() {
+        CheckpointScheduler scheduler = checkpointScheduler;
+
+        if (scheduler != null && !safeDb.inTransaction()) {
+            scheduler.onWrite();
+        }
+    }
+
+    /**
+     * @return the reader pool to run the query on, or null to run it on the
+     * writer: if there is no pool, if this thread is in a transaction and so
+     * needs to see its own uncommitted changes, or if the SQL may write or
+     * depend on the writer's settings; callers hold a pin
+     */
+    private ReaderPool readersFor(SupportSQLiteQuery supportQuery) {
+        ReaderPool pool = readerPool;
+
+        if (pool == null || safeDb.inTransaction() || !ReaderPool.canRead(supportQuery.getSql())) {
+            return null;
+        }
+
+        return pool;
+    }
+
+    /**
+     * @return the statement cache for this database, or null if the
+     * statement cache is disabled
+     */
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * @return the latency metrics for this database, or null if they are
+     * disabled
+     */
+    QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * @return the slow-query log for this database, or null if it is
+     * disabled
+     */
+    SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN on the SQL, on a reader connection if there
+     * is one and the SQL only reads, otherwise on the writer. The plan is
+     * skipped if the connections were closed for being idle, rather than
+     * reopening them just for this.
+     *
+     * @return the plan, one step per line, indented by depth, or null if
+     * it was skipped
+     */
+    String explain(String sql) {
+        SupportSQLiteQuery query = new SimpleSQLiteQuery("EXPLAIN QUERY PLAN " + sql);
+
+        if (pinIfOpen() == null) {
+            return null;
+        }
+
+        try {
+            return formatPlan(rawQuery(query, null));
+        } finally {
+            unpin();
+        }
+    }
+
+    private static String formatPlan(Cursor plan) {
+        StringBuilder result = new StringBuilder();
+        SparseIntArray depths = new SparseIntArray();
+
+        try {
+            // columns are id, parent, notused, and detail
+            while (plan.moveToNext()) {
+                int depth = depths.get(plan.getInt(1), -1) + 1;
+
+                depths.put(plan.getInt(0), depth);
+
+                if (result.length() > 0) {
+                    result.append('\n');
+                }
+
+                for (int i = 0; i < depth; i++) {
+                    result.append("  ");
+                }
+
+                result.append(plan.getString(plan.getColumnCount() - 1));
+            }
+        } finally {
+            plan.close();
+        }
+
+        return result.toString();
+    }
+
+    private LatencyHistogram histogramFor(String sql) {
+        return (queryMetrics == null) ? null : queryMetrics.histogramFor(sql);
+    }
+
     /**
      * Changes the passphrase associated with this database. The
      * char[] is *not* cleared by this method -- please zero it
@@ -494,7 +1755,24 @@ class Database implements SupportSQLiteDatabase {
      * @param passphrase the new passphrase to use
      */
     public void rekey(char[] passphrase) {
-        safeDb.changePassword(new String(passphrase).getBytes(UTF_8));
+        byte[] bytes = new String(passphrase).getBytes(UTF_8);
+        SqlConnection db = pin();
+
+        try {
+            db.changePassword(bytes);
+
+            if (openHelper != null) {
+                openHelper.onRekey(bytes, db);
+
+                // the readers were keyed with the old passphrase
+                if (readerPool != null) {
+                    setReaderPool(openHelper.openReaderPool(db, bytes));
+                }
+            }
+        } finally {
+            unpin();
+            Arrays.fill(bytes, (byte) 0);
+        }
     }
 
     /**
@@ -0,0 +1,317 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Holds what one Helper needs to key reopens of its database without
+ * running PBKDF2 again. After the first open, it derives the same key that
+ * SQLCipher did and, once that key is checked against the database, reopens
+ * use the raw key. If the passphrase is to be cleared, the key is derived,
+ * and checked with a second open, on the opening thread, so that this holds
+ * no copy of the passphrase after the open; otherwise it keeps a copy of the
+ * passphrase for reopens while the key is derived in the background, then
+ * zeroes it. Either way, the SecretKeySpec and Mac used by pbkdf2() keep
+ * copies of the passphrase that cannot be zeroed, until they are garbage
+ * collected. A passphrase that is already a
+ * raw key is held as-is. Everything held is zeroed when the time-to-live
+ * runs out or when wipe() is called.
+ */
+final class DerivedKeyCache {
+    private static final int KEY_BYTES = 32;
+    private static final int SALT_HEX_CHARS = 32;
+    // derivations are rare and slow, so they share one thread, which goes
+    // away when there is nothing to derive
+    private static final ThreadPoolExecutor DERIVATION = createExecutor();
+    private final long ttlMillis;
+    private byte[] passphrase;
+    private byte[] rawKey;
+    private ScheduledFuture<?> expiry;
+    private int generation;
+
+    /**
+     * @param ttlMillis how long to hold anything after remember(), or
+     *                  Long.MAX_VALUE to hold it until wipe()
+     */
+    DerivedKeyCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return a copy of the raw key if it is ready, otherwise of the
+     * remembered passphrase, or null if nothing is held
+     */
+    synchronized byte[] key() {
+        if (rawKey != null) {
+            return rawKey.clone();
+        }
+
+        return (passphrase == null) ? null : passphrase.clone();
+    }
+
+    /**
+     * @return true if something is held that key() can return
+     */
+    synchronized boolean hasKey() {
+        return rawKey != null || passphrase != null;
+    }
+
+    /**
+     * Remembers the key for the passphrase that just opened the database,
+     * unless something is already held. If options ask for the passphrase
+     * to be cleared, this derives the key before returning.
+     *
+     * @param passphrase the passphrase that keyed db
+     * @param db         the newly-opened connection
+     * @param path       the database file, for checking the derived key
+     * @param options    the options used to open db
+     */
+    synchronized void remember(byte[] passphrase, SqlConnection db, String path,
+                               SafeHelperFactory.Options options) {
+        if (passphrase == null || this.passphrase != null || rawKey != null) {
+            return;
+        }
+
+        if (ttlMillis != Long.MAX_VALUE) {
+            expiry = BackgroundScheduler.schedule(this::wipe, ttlMillis);
+        }
+
+        // SQLCipher uses a raw key as-is, so there is nothing to derive, and
+        // an empty passphrase (an unencrypted database) has nothing to clear
+        if (passphrase.length == 0 || SafeHelperFactory.isRawKeySpec(passphrase)) {
+            rawKey = passphrase.clone();
+            return;
+        }
+
+        boolean keepPassphrase = !options.clearPassphrase;
+
+        if (keepPassphrase) {
+            this.passphrase = passphrase.clone();
+        }
+
+        final String salt;
+        final int iterations;
+        final String macAlgorithm;
+
+        try {
+            salt = pragma(db, "cipher_salt");
+            iterations = Integer.parseInt(pragma(db, "kdf_iter"));
+            macAlgorithm = macFor(pragma(db, "cipher_kdf_algorithm"));
+        } catch (RuntimeException e) {
+            // a SQLCipher that does not report its key settings; reopens
+            // keep using the passphrase copy, if there is one
+            return;
+        }
+
+        if (salt == null || salt.length() != SALT_HEX_CHARS || macAlgorithm == null) {
+            return;
+        }
+
+        if (!keepPassphrase) {
+            // the caller clears the passphrase once we return
+            rawKey = derive(passphrase.clone(), salt, iterations, macAlgorithm, path, options);
+            return;
+        }
+
+        final int current = ++generation;
+        final byte[] secret = passphrase.clone();
+
+        try {
+            DERIVATION.execute(() ->
+                    publish(current, derive(secret, salt, iterations, macAlgorithm, path,
+                            options)));
+        } catch (RejectedExecutionException e) {
+            // reopens keep using the passphrase copy
+            zero(secret);
+        }
+    }
+
+    /**
+     * Zeroes and drops everything held, including a derivation in flight
+     */
+    synchronized void wipe() {
+        generation++;
+        zero(passphrase);
+        zero(rawKey);
+        passphrase = null;
+        rawKey = null;
+
+        if (expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+    }
+
+    private synchronized void publish(int current, byte[] candidate) {
+        if (candidate == null) {
+            return;
+        }
+
+        if (current != generation) {
+            zero(candidate);
+            return;
+        }
+
+        zero(passphrase);
+        passphrase = null;
+        rawKey = candidate;
+    }
+
+    /**
+     * @return the raw key, in SQLCipher's x'key+salt' form, or null if it
+     * could not be derived or does not open the database
+     */
+    private static byte[] derive(byte[] secret, String salt, int iterations,
+                                 String macAlgorithm, String path,
+                                 SafeHelperFactory.Options options) {
+        byte[] key = null;
+        byte[] candidate = null;
+
+        try {
+            key = pbkdf2(macAlgorithm, secret, hexToBytes(salt), iterations, KEY_BYTES);
+            candidate = SafeHelperFactory.toRawKeySpec(key, hexToBytes(salt));
+
+            if (opens(path, candidate, options)) {
+                return candidate;
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // leave reopens on the passphrase
+        } finally {
+            zero(secret);
+            zero(key);
+        }
+
+        zero(candidate);
+
+        return null;
+    }
+
+    /**
+     * PBKDF2 (RFC 8018), as SQLCipher runs it, on top of Mac, which unlike
+     * SecretKeyFactory's PBKDF2WithHmacSHA512 is available on every
+     * supported API level and takes the passphrase as raw bytes.
+     * SecretKeySpec copies the password, and neither it nor the Mac's
+     * key state can be wiped, so those copies last until garbage collection.
+     */
+    static byte[] pbkdf2(String macAlgorithm, byte[] password, byte[] salt, int iterations,
+                         int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(macAlgorithm);
+        int macLength = mac.getMacLength();
+        byte[] result = new byte[length];
+        byte[] u = new byte[macLength];
+        byte[] t = new byte[macLength];
+
+        mac.init(new SecretKeySpec(password, macAlgorithm));
+
+        for (int block = 1, offset = 0; offset < length; block++, offset += macLength) {
+            mac.update(salt);
+            mac.update(new byte[]{(byte) (block >>> 24), (byte) (block >>> 16),
+                    (byte) (block >>> 8), (byte) block});
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, macLength);
+
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+
+                for (int j = 0; j < macLength; j++) {
+                    t[j] ^= u[j];
+                }
+            }
+
+            System.arraycopy(t, 0, result, offset, Math.min(macLength, length - offset));
+        }
+
+        zero(u);
+        zero(t);
+
+        return result;
+    }
+
+    private static boolean opens(String path, byte[] rawKey, SafeHelperFactory.Options options) {
+        try (SqlConnection db = options.backend.open(path, rawKey.clone(),
+                SqlBackend.OPEN_READONLY, options)) {
+            Helper.OpenHelper.runKeySql(db, options);
+
+            try (Cursor c = db.query(new SimpleSQLiteQuery("SELECT count(*) FROM sqlite_master"), null,
+                    null)) {
+                return c.moveToFirst();
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static String macFor(String kdfAlgorithm) {
+        switch (kdfAlgorithm) {
+            case "PBKDF2_HMAC_SHA512":
+                return "HmacSHA512";
+            case "PBKDF2_HMAC_SHA256":
+                return "HmacSHA256";
+            case "PBKDF2_HMAC_SHA1":
+                return "HmacSHA1";
+            default:
+                return null;
+        }
+    }
+
+    private static String pragma(SqlConnection db, String name) {
+        try (Cursor c = db.query(new SimpleSQLiteQuery("PRAGMA " + name), null, null)) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+
+        return result;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "SafeRoom-KeyDerivation");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        result.allowCoreThreadTimeOut(true);
+
+        return result;
+    }
+
+    private static void zero(byte[] bytes) {
+        if (bytes != null) {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.database.sqlite.SQLiteTransactionListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer thread that coalesces the writes submitted within a short
+ * window into one transaction, so that N small writes pay for one commit
+ * instead of N. If a write throws, the whole batch is rolled back, that
+ * write fails, and the rest of the batch runs again in a fresh transaction.
+ * SQLCipher rolls back a whole transaction when a nested one fails, so
+ * rerunning is the only reliable way to keep the other writes. Futures are
+ * completed only once the batch has committed.
+ * <p>
+ * A nested transaction that ends without being marked successful rolls back
+ * the batch without throwing, such as when a write catches the exception of
+ * a Room DAO method. Each write therefore runs in a nested transaction of
+ * its own, whose listener hears of that rollback, and the write fails as if
+ * it had thrown.
+ * <p>
+ * The writer cannot start a batch while another thread has a transaction
+ * open, and runs one batch at a time, so waiting on a write from inside a
+ * write or a transaction would never return. get() throws an
+ * IllegalStateException instead.
+ */
+final class GroupCommitWriter {
+    private final Database database;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Object batchLock = new Object();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    GroupCommitWriter(Database database, long windowMillis, int maxBatch) {
+        this.database = database;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+
+        thread = new Thread(this::loop, "SafeRoom-Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    <T> Future<T> submit(WriteTask<T> task) {
+        PendingWrite<T> result = new PendingWrite<>(task);
+
+        if (closed) {
+            throw new IllegalStateException("The database is closed");
+        }
+
+        queue.add(result);
+
+        // close() may have drained the queue just before the add
+        if (closed && queue.remove(result)) {
+            result.fail(new IllegalStateException("The database is closed"));
+        }
+
+        return result;
+    }
+
+    /**
+     * Waits for the batch in progress, if any, then fails every write that
+     * is still queued.
+     */
+    void close() {
+        closed = true;
+        thread.interrupt();
+
+        synchronized (batchLock) {
+            PendingWrite<?> write;
+
+            while ((write = queue.poll()) != null) {
+                write.fail(new IllegalStateException("The database is closed"));
+            }
+        }
+    }
+
+    private void loop() {
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatch);
+
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+
+                long deadline = System.nanoTime() + windowNanos;
+
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite<?> next = (remaining > 0)
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts the writer to stop it waiting for work
+            }
+
+            if (!batch.isEmpty()) {
+                synchronized (batchLock) {
+                    if (closed) {
+                        for (PendingWrite<?> write : batch) {
+                            write.fail(new IllegalStateException("The database is closed"));
+                        }
+                    } else {
+                        runBatch(batch);
+                    }
+                }
+
+                batch.clear();
+            }
+        }
+    }
+
+    private void runBatch(List<PendingWrite<?>> batch) {
+        while (!batch.isEmpty()) {
+            PendingWrite<?> failed = null;
+            Throwable failure = null;
+
+            try {
+                database.beginTransaction();
+
+                try {
+                    for (PendingWrite<?> write : batch) {
+                        try {
+                            write.write();
+                        } catch (Throwable t) {
+                            failed = write;
+                            failure = t;
+                            break;
+                        }
+                    }
+
+                    if (failed == null) {
+                        database.setTransactionSuccessful();
+                    }
+                } finally {
+                    database.endTransaction();
+                }
+            } catch (Throwable t) {
+                // the transaction itself failed, such as on commit
+                for (PendingWrite<?> write : batch) {
+                    write.fail(t);
+                }
+
+                return;
+            }
+
+            if (failed == null) {
+                for (PendingWrite<?> write : batch) {
+                    write.publish();
+                }
+
+                return;
+            }
+
+            failed.fail(failure);
+            batch.remove(failed);
+        }
+    }
+
+    private final class PendingWrite<T> extends FutureTask<T>
+            implements SQLiteTransactionListener {
+        private final WriteTask<T> task;
+        private T result;
+        private boolean rolledBack;
+
+        PendingWrite(WriteTask<T> task) {
+            // completed through publish() and fail(), never run()
+            super(() -> null);
+            this.task = task;
+        }
+
+        void write() {
+            rolledBack = false;
+            database.beginTransactionWithListener(this);
+
+            try {
+                result = task.write(database);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            if (rolledBack) {
+                throw new IllegalStateException(
+                        "A transaction inside the write was not marked successful");
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            // this thread's transaction, or the one of the batch that this
+            // is called from, would keep the writer from ever running this
+            if (!isDone() && database.inTransaction()) {
+                throw new IllegalStateException(
+                        "Waiting for a write inside a transaction would never return");
+            }
+
+            return super.get();
+        }
+
+        @Override
+        public void onBegin() {
+        }
+
+        @Override
+        public void onCommit() {
+        }
+
+        @Override
+        public void onRollback() {
+            rolledBack = true;
+        }
+
+        void publish() {
+            set(result);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+}
@@ -23,11 +23,15 @@ import androidx.annotation.NonNull;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.SupportSQLiteOpenHelper;
 
-import net.zetetic.database.sqlcipher.SQLiteDatabase;
-import net.zetetic.database.sqlcipher.SQLiteOpenHelper;
+import net.zetetic.database.sqlcipher.SQLiteDatabaseHook;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * SupportSQLiteOpenHelper implementation that works with SQLCipher for Android
@@ -36,10 +40,11 @@ class Helper implements SupportSQLiteOpenHelper {
     private final OpenHelper delegate;
     private final byte[] passphrase;
     private final boolean clearPassphrase;
+    private final Object pendingLock = new Object();
+    private volatile PendingOpen pendingOpen;
 
     Helper(Context context, String name, Callback callback, byte[] passphrase,
            SafeHelperFactory.Options options) {
-        System.loadLibrary("sqlcipher");
         clearPassphrase = options.clearPassphrase;
         delegate = createDelegate(context, name, callback, options);
         this.passphrase = passphrase;
@@ -76,7 +81,64 @@ class Helper implements SupportSQLiteOpenHelper {
      */
     @NonNull
     @Override
-    synchronized public SupportSQLiteDatabase getWritableDatabase() {
+    public SupportSQLiteDatabase getWritableDatabase() {
+        // fast path: once the database is open, no locks are needed to return it
+        Database open = delegate.getOpenDatabase();
+
+        if (open != null) {
+            return open;
+        }
+
+        // join an openAsync() that is in flight, unless this thread is the one
+        // running it and is calling back in from onCreate()/onOpen()/etc.
+        PendingOpen pending = pendingOpen;
+
+        if (pending != null && !Thread.holdsLock(this)) {
+            return pending.join();
+        }
+
+        return openDatabase();
+    }
+
+    /**
+     * Opens the database on the supplied Executor. If an asynchronous open
+     * is already in flight, this returns its Future instead of starting
+     * another one, and getWritableDatabase() waits on it as well.
+     *
+     * @param executor where to run the open
+     * @return a Future for the opened database
+     */
+    Future<SupportSQLiteDatabase> openAsync(Executor executor) {
+        Database open = delegate.getOpenDatabase();
+
+        if (open != null) {
+            FutureTask<SupportSQLiteDatabase> done = new FutureTask<>(() -> open);
+
+            done.run();
+
+            return done;
+        }
+
+        synchronized (pendingLock) {
+            PendingOpen result = pendingOpen;
+
+            if (result == null) {
+                result = new PendingOpen();
+                pendingOpen = result;
+
+                try {
+                    executor.execute(result);
+                } catch (RejectedExecutionException e) {
+                    pendingOpen = null;
+                    throw e;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    synchronized private SupportSQLiteDatabase openDatabase() {
         SupportSQLiteDatabase result;
 
         try {
@@ -110,7 +172,10 @@ class Helper implements SupportSQLiteOpenHelper {
      * {@inheritDoc}
      * <p>
      * NOTE: this implementation delegates to getWritableDatabase(), to ensure
-     * that we only need the passphrase once
+     * that we only need the passphrase once. If write-ahead logging is enabled
+     * before the database is opened and SafeHelperFactory.Options asks for a
+     * reader pool, queries made outside of a transaction on that database are
+     * served by the pool's read-only connections.
      */
     @NonNull
     @Override
@@ -126,29 +191,89 @@ class Helper implements SupportSQLiteOpenHelper {
         delegate.close();
     }
 
-    static class OpenHelper extends SQLiteOpenHelper {
+    private final class PendingOpen extends FutureTask<SupportSQLiteDatabase> {
+        PendingOpen() {
+            super(Helper.this::openDatabase);
+        }
+
+        /**
+         * Runs the open on the calling thread if the executor has not started
+         * it yet, then waits for it to finish.
+         */
+        SupportSQLiteDatabase join() {
+            run();
+
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the database to open", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        @Override
+        protected void done() {
+            synchronized (pendingLock) {
+                if (pendingOpen == this) {
+                    pendingOpen = null;
+                }
+            }
+        }
+    }
+
+    static class OpenHelper {
         private final Database[] dbRef;
         private final Callback callback;
-        private volatile boolean migrated;
         private final SafeHelperFactory.Options options;
+        private final SqlBackend backend;
         private final Context context;
         private final String databaseName;
-        private SQLiteDatabase internalDb;
+        private SqlConnection internalDb;
+        private final DerivedKeyCache keyCache;
+        private volatile Database openDb;
+        private boolean writeAheadLoggingEnabled;
 
         OpenHelper(Context context, String name, Database[] dbRef, Callback callback,
                    SafeHelperFactory.Options options) {
-            super(context, name, null, callback.version);
-
             this.dbRef = dbRef;
             this.callback = callback;
             this.options = options;
+            this.backend = (options == null) ? SafeHelperFactory.Options.defaultBackend
+                    : options.backend;
             this.context = context;
             this.databaseName = name;
+
+            if (options != null && options.autoCloseIdleMillis > 0) {
+                // reopening after an idle close needs the key for as long as
+                // the database stays open, so any time-to-live is ignored; a
+                // key that expired while idle-closed could never reopen it
+                keyCache = new DerivedKeyCache(Long.MAX_VALUE);
+            } else if (options != null && options.derivedKeyTtlMillis > 0) {
+                keyCache = new DerivedKeyCache(options.derivedKeyTtlMillis);
+            } else {
+                keyCache = null;
+            }
         }
 
-        synchronized SupportSQLiteDatabase getWritableSupportDatabase(byte[] passphrase) {
-            migrated = false;
+        /**
+         * @return the database, if it is open and done with creation, migration,
+         * and onOpen(); null otherwise. Safe to call without holding any lock.
+         */
+        Database getOpenDatabase() {
+            return openDb;
+        }
 
+        synchronized SupportSQLiteDatabase getWritableSupportDatabase(byte[] passphrase) {
             // Check if we already have an open database
             if (internalDb != null) {
                 if (internalDb.isOpen()) {
@@ -157,10 +282,54 @@ class Helper implements SupportSQLiteOpenHelper {
                     // Database was closed, clear references
                     internalDb = null;
                     dbRef[0] = null;
+                    openDb = null;
                 }
             }
 
+            OpenTiming timing = new OpenTiming(databaseName);
+            byte[] cachedKey = (keyCache == null) ? null : keyCache.key();
+
+            try {
+                if (cachedKey != null) {
+                    try {
+                        openInternal(cachedKey, timing);
+                    } catch (RuntimeException e) {
+                        // e.g., the database was rekeyed; do not keep trying
+                        // a key that no longer works
+                        keyCache.wipe();
+                        throw e;
+                    }
+                } else {
+                    openInternal(passphrase, timing);
+                }
+
+                if (keyCache != null && cachedKey == null) {
+                    timing.begin(OpenPhase.KEY_DERIVATION);
+                    keyCache.remember(passphrase, internalDb,
+                            context.getDatabasePath(databaseName).getAbsolutePath(), options);
+                }
+
+                timing.begin(OpenPhase.POST_OPEN);
+
+                openDb.startAutoClose();
+                openDb.startMemoryTrimmer(context, options);
+            } finally {
+                timing.finish();
+            }
+
+            if (options != null && options.openTrace != null) {
+                options.openTrace.onOpenTimed(timing);
+            }
+
+            return openDb;
+        }
+
+        private void openInternal(byte[] passphrase, OpenTiming timing) {
+            timing.begin(OpenPhase.NATIVE_LOAD);
+            backend.load();
+
             // Get database file path
+            timing.begin(OpenPhase.CREATE_DIRECTORY);
             File dbFile = context.getDatabasePath(databaseName);
             
             // Ensure parent directory exists
@@ -171,32 +340,32 @@ class Helper implements SupportSQLiteOpenHelper {
 
             boolean isNewDatabase = !dbFile.exists();
 
-            // Clean up WAL/journal files for existing databases before reopening
-            if (!isNewDatabase) {
-                File walFile = new File(dbFile.getAbsolutePath() + "-wal");
-                File shmFile = new File(dbFile.getAbsolutePath() + "-shm");
-                File journalFile = new File(dbFile.getAbsolutePath() + "-journal");
-                if (walFile.exists()) walFile.delete();
-                if (shmFile.exists()) shmFile.delete();
-                if (journalFile.exists()) journalFile.delete();
-            }
+            // Any -wal or -journal file left behind holds changes that SQLite
+            // recovers when it opens the database, so those are left alone
 
             // Open the database with encryption
-            int flags = SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.OPEN_READWRITE;
-            internalDb = SQLiteDatabase.openDatabase(
-                    dbFile.getAbsolutePath(), passphrase, null, flags, null, null);
-
-            // Execute preKey SQL if provided
-            if (options != null && options.preKeySql != null) {
-                internalDb.rawExecSQL(options.preKeySql);
+            timing.begin(OpenPhase.OPEN_DATABASE);
+            int flags = SqlBackend.CREATE_IF_NECESSARY | SqlBackend.OPEN_READWRITE;
+            internalDb = backend.open(dbFile.getAbsolutePath(), passphrase, flags, options);
+
+            timing.begin(OpenPhase.PRE_KEY_SQL);
+            runPreKeySql(internalDb, options);
+            timing.begin(OpenPhase.POST_KEY_SQL);
+            runPostKeySql(internalDb, options);
+
+            timing.begin(OpenPhase.CONFIGURE);
+            if (writeAheadLoggingEnabled) {
+                internalDb.enableWriteAheadLogging();
             }
 
-            // Execute postKey SQL if provided  
-            if (options != null && options.postKeySql != null) {
-                internalDb.rawExecSQL(options.postKeySql);
+            if (options != null && options.cipherProfile != null) {
+                options.cipherProfile.applyAfterOpen(internalDb);
             }
 
+            callback.onConfigure(getWrappedDb(internalDb));
+
             // Handle database creation and upgrades
+            timing.begin(OpenPhase.GET_VERSION);
             int version = 0;
             try {
                 version = internalDb.getVersion();
@@ -205,6 +374,7 @@ class Helper implements SupportSQLiteOpenHelper {
                 isNewDatabase = true;
             }
             
+            timing.begin(OpenPhase.CREATE_OR_MIGRATE);
             if (isNewDatabase || version == 0) {
                 callback.onCreate(getWrappedDb(internalDb));
                 internalDb.setVersion(callback.version);
@@ -215,93 +385,222 @@ class Helper implements SupportSQLiteOpenHelper {
                     callback.onUpgrade(getWrappedDb(internalDb), version, callback.version);
                 }
                 internalDb.setVersion(callback.version);
-                migrated = true;
             }
 
-            if (migrated) {
-                internalDb.close();
-                internalDb = null;
-                dbRef[0] = null;
-                return getWritableSupportDatabase(passphrase);
+            // The migration ran on this same keyed connection, so there is no
+            // need to reopen it (and derive the key all over again) before
+            // calling onOpen
+            timing.begin(OpenPhase.ON_OPEN);
+            callback.onOpen(getWrappedDb(internalDb));
+
+            // Readers need the passphrase, which may be cleared once we return
+            if (options != null && options.readerPoolSize > 0
+                    && internalDb.isWriteAheadLoggingEnabled()) {
+                timing.begin(OpenPhase.READER_POOL);
+                getWrappedDb(internalDb).setReaderPool(
+                        new ReaderPool(dbFile.getAbsolutePath(), passphrase, options));
             }
 
-            // Call onOpen callback
-            callback.onOpen(getWrappedDb(internalDb));
+            if (options != null && options.backgroundCheckpointMode != null
+                    && internalDb.isWriteAheadLoggingEnabled()) {
+                timing.begin(OpenPhase.CHECKPOINT_SCHEDULER);
+                getWrappedDb(internalDb).startBackgroundCheckpoints(options);
+            }
 
-            return getWrappedDb(internalDb);
+            openDb = getWrappedDb(internalDb);
         }
 
-        synchronized Database getWrappedDb(SQLiteDatabase db) {
-            if (db == null) {
-                throw new IllegalStateException("Database is null");
+        /**
+         * Opens another connection to the database, keyed from the key cache,
+         * for an AutoCloser that closed the last one for being idle. Creation
+         * and migration already ran on the first open and are not repeated;
+         * see onReopened() for the callbacks that are.
+         *
+         * @param writeAheadLogging whether the old connection used WAL
+         * @return the new writer connection
+         */
+        SqlConnection openConnection(boolean writeAheadLogging) {
+            byte[] key = (keyCache == null) ? null : keyCache.key();
+
+            if (key == null) {
+                throw new IllegalStateException("The key for reopening the database after it was" +
+                        " closed for being idle is gone, as the open helper was closed.");
             }
 
-            Database wrappedDb = dbRef[0];
+            String path = context.getDatabasePath(databaseName).getAbsolutePath();
+            SqlConnection result = backend.open(path, key, SqlBackend.OPEN_READWRITE, options);
 
-            if (wrappedDb == null) {
-                wrappedDb = new Database(db, this);
-                dbRef[0] = wrappedDb;
+            try {
+                runKeySql(result, options);
+
+                if (writeAheadLogging) {
+                    result.enableWriteAheadLogging();
+                }
+
+                if (options.cipherProfile != null) {
+                    options.cipherProfile.applyAfterOpen(result);
+                }
+            } catch (RuntimeException e) {
+                result.close();
+                throw e;
             }
 
-            return wrappedDb;
+            return result;
         }
 
-        synchronized void onDatabaseClosed() {
-            // Clear our reference when the database is closed via db.close()
-            internalDb = null;
-            dbRef[0] = null;
+        /**
+         * Runs onConfigure() and onOpen() again, for a connection that an
+         * AutoCloser opened to replace one that it closed for being idle.
+         * Those callbacks set up per-connection state that went away with
+         * the old connection, such as the TEMP table and triggers behind
+         * Room's InvalidationTracker.
+         */
+        void onReopened(Database db) {
+            callback.onConfigure(db);
+            callback.onOpen(db);
         }
 
         /**
-         * {@inheritDoc}
+         * @return true if openConnection() has a key to open with
          */
-        @Override
-        public void onCreate(SQLiteDatabase sqLiteDatabase) {
-            callback.onCreate(getWrappedDb(sqLiteDatabase));
+        boolean canReopen() {
+            return keyCache != null && keyCache.hasKey();
         }
 
         /**
-         * {@inheritDoc}
+         * @return a reader pool keyed from the key cache, for a connection
+         * from openConnection(), or null if the options do not ask for one
          */
-        @Override
-        public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-            migrated = true;
-            callback.onUpgrade(getWrappedDb(sqLiteDatabase), oldVersion, newVersion);
+        ReaderPool openReaderPool(SqlConnection writer) {
+            return openReaderPool(writer, keyCache.key());
         }
 
         /**
-         * {@inheritDoc}
+         * @return a reader pool keyed with the supplied passphrase, or null if
+         * the options do not ask for one
          */
-        @Override
-        public void onConfigure(SQLiteDatabase db) {
-            callback.onConfigure(getWrappedDb(db));
+        ReaderPool openReaderPool(SqlConnection writer, byte[] passphrase) {
+            if (options == null || options.readerPoolSize == 0
+                    || !writer.isWriteAheadLoggingEnabled()) {
+                return null;
+            }
+
+            return new ReaderPool(writer.getPath(), passphrase, options);
         }
 
         /**
-         * {@inheritDoc}
+         * Called after the passphrase was changed, so that reopens are keyed
+         * with the new one
          */
-        @Override
-        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            migrated = true;
-            callback.onDowngrade(getWrappedDb(db), oldVersion, newVersion);
+        void onRekey(byte[] passphrase, SqlConnection db) {
+            if (keyCache != null) {
+                keyCache.wipe();
+                keyCache.remember(passphrase, db,
+                        context.getDatabasePath(databaseName).getAbsolutePath(), options);
+            }
         }
 
         /**
-         * {@inheritDoc}
+         * @return the hook that applies the cipher profile around keying each
+         * connection, or null if there is no profile
          */
-        @Override
-        public void onOpen(SQLiteDatabase db) {
-            if (!migrated) {
-                // from Google: "if we've migrated, we'll re-open the db so we  should not call the callback."
-                callback.onOpen(getWrappedDb(db));
+        static SQLiteDatabaseHook hookFor(SafeHelperFactory.Options options) {
+            if (options != null && options.cipherProfile != null) {
+                return options.cipherProfile.hook;
             }
+
+            return null;
+        }
+
+        static void runKeySql(SqlConnection db, SafeHelperFactory.Options options) {
+            runPreKeySql(db, options);
+            runPostKeySql(db, options);
+        }
+
+        private static void runPreKeySql(SqlConnection db, SafeHelperFactory.Options options) {
+            // Execute preKey SQL if provided
+            if (options != null && options.preKeySql != null) {
+                db.rawExecSQL(options.preKeySql);
+            }
+        }
+
+        private static void runPostKeySql(SqlConnection db, SafeHelperFactory.Options options) {
+            // Execute postKey SQL if provided
+            if (options != null && options.postKeySql != null) {
+                db.rawExecSQL(options.postKeySql);
+            }
+        }
+
+        synchronized Database getWrappedDb(SqlConnection db) {
+            if (db == null) {
+                throw new IllegalStateException("Database is null");
+            }
+
+            Database wrappedDb = dbRef[0];
+
+            if (wrappedDb == null) {
+                wrappedDb = new Database(db, this, options);
+                dbRef[0] = wrappedDb;
+            }
+
+            return wrappedDb;
+        }
+
+        synchronized void onDatabaseClosed() {
+            // Clear our reference when the database is closed via db.close()
+            openDb = null;
+            internalDb = null;
+            dbRef[0] = null;
         }
 
         /**
-         * {@inheritDoc}
+         * Turns WAL on or off for the open connection, if any, and for the
+         * connection opened next
          */
-        @Override
-        public synchronized void close() {
+        synchronized void setWriteAheadLoggingEnabled(boolean enabled) {
+            writeAheadLoggingEnabled = enabled;
+
+            // once open, the connection may have been replaced after an idle
+            // close, so go through the database, which knows the current one
+            if (openDb != null && openDb.isOpen()) {
+                if (enabled) {
+                    openDb.enableWriteAheadLogging();
+                } else {
+                    openDb.disableWriteAheadLogging();
+                }
+            } else if (internalDb != null && internalDb.isOpen()) {
+                if (enabled) {
+                    internalDb.enableWriteAheadLogging();
+                } else {
+                    // SQLite cannot leave WAL mode while readers are open
+                    if (openDb != null) {
+                        openDb.setReaderPool(null);
+                    }
+
+                    internalDb.disableWriteAheadLogging();
+                }
+            }
+        }
+
+        String getDatabaseName() {
+            return databaseName;
+        }
+
+        synchronized void close() {
+            Database wrapped = dbRef[0];
+
+            // closing the wrapper also stops its background threads and caches,
+            // then calls back into onDatabaseClosed(); the wrapper may be open
+            // even though internalDb is not, if it was closed for being idle
+            if (wrapped != null && wrapped.isOpen()) {
+                wrapped.close();
+            }
+
+            if (keyCache != null) {
+                keyCache.wipe();
+            }
+
+            openDb = null;
             if (dbRef[0] != null) {
                 dbRef[0] = null;
             }
@@ -0,0 +1,76 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets. Each thread
+ * records into one of several stripes, so that threads recording at the
+ * same time rarely contend for the same counters; the stripes are only
+ * added together when taking a snapshot.
+ */
+final class LatencyHistogram {
+    /**
+     * Bucket 0 holds latencies under 1024ns, bucket i holds those from
+     * 2^(9+i) up to 2^(10+i) ns, and the last bucket holds the rest
+     */
+    static final int BUCKETS = 24;
+    private static final int STRIPES = 8;
+    private static final int SUM = BUCKETS;
+    // the bucket counts and the sum for one stripe, padded so stripes do
+    // not share a cache line
+    private static final int STRIDE = BUCKETS + 8;
+
+    private final String fingerprint;
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+
+    LatencyHistogram(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    void record(long nanos) {
+        int base = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+
+        cells.incrementAndGet(base + bucketFor(nanos));
+        cells.addAndGet(base + SUM, nanos);
+    }
+
+    static int bucketFor(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos >>> 10);
+
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    QueryStats snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long totalNanos = 0;
+
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int base = stripe * STRIDE;
+
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                buckets[bucket] += cells.get(base + bucket);
+            }
+
+            totalNanos += cells.get(base + SUM);
+        }
+
+        return new QueryStats(fingerprint, buckets, totalNanos);
+    }
+
+    void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+}
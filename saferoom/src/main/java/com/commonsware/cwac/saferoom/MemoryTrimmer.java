@@ -0,0 +1,234 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.SortedMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the trim policies of one database when the system asks the app to
+ * trim its memory. Trim callbacks arrive on the main thread, so the work
+ * itself runs on a background thread, where it may wait for the connections
+ * to be free. That thread is shared by every database, and goes away when
+ * there is nothing to trim.
+ */
+class MemoryTrimmer implements ComponentCallbacks2 {
+    private static final String TAG = "SafeRoom";
+    // trims are rare, so all databases share one thread for them
+    private static final ThreadPoolExecutor TRIM = createExecutor();
+
+    private final Database db;
+    private final Context context;
+    private final SortedMap<Integer, TrimPolicy> policies;
+    private final TrimListener listener;
+    private Integer savedCacheSize;
+    private volatile Integer trimmedCacheSize;
+    private ScheduledFuture<?> restore;
+    private boolean closed;
+
+    MemoryTrimmer(Database db, Context context, SafeHelperFactory.Options options) {
+        this.db = db;
+        this.context = context.getApplicationContext();
+        this.policies = options.trimPolicies;
+        this.listener = options.trimListener;
+
+        this.context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        TrimPolicy policy = policyFor(policies, level);
+
+        if (policy != null) {
+            synchronized (this) {
+                if (!closed) {
+                    TRIM.execute(() -> trim(level, policy));
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // nothing to do
+    }
+
+    /**
+     * Stops listening for trim callbacks. A trim that is already running is
+     * allowed to finish; queued ones are skipped.
+     */
+    synchronized void close() {
+        closed = true;
+
+        if (restore != null) {
+            restore.cancel(false);
+            restore = null;
+        }
+
+        context.unregisterComponentCallbacks(this);
+    }
+
+    /**
+     * @return the cache_size that a trim lowered the connections to and
+     * that has not been restored yet, or null if there is none. Safe to
+     * call without holding any lock.
+     */
+    Integer getTrimmedCacheSize() {
+        return trimmedCacheSize;
+    }
+
+    /**
+     * @return the policy for the highest configured level that does not
+     * exceed the reported one, or null if there is none
+     */
+    static TrimPolicy policyFor(SortedMap<Integer, TrimPolicy> policies, int level) {
+        SortedMap<Integer, TrimPolicy> eligible =
+                (level == Integer.MAX_VALUE) ? policies : policies.headMap(level + 1);
+
+        return eligible.isEmpty() ? null : eligible.get(eligible.lastKey());
+    }
+
+    private void trim(int level, TrimPolicy policy) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+
+        // connections closed for being idle have nothing left to release
+        if (!db.isOpen() || db.isIdleClosed()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long heapBefore = Debug.getNativeHeapAllocatedSize();
+
+        try {
+            if (policy.cacheSize != null) {
+                synchronized (this) {
+                    if (savedCacheSize == null) {
+                        savedCacheSize = db.getCacheSize();
+                    }
+                }
+            }
+
+            if (!db.trimMemory(policy)) {
+                return;
+            }
+
+            if (policy.cacheSize != null) {
+                trimmedCacheSize = policy.cacheSize;
+            }
+        } catch (RuntimeException e) {
+            // the database may have been closed while we waited
+            Log.w(TAG, "Memory trim failed", e);
+            return;
+        }
+
+        if (policy.cacheSize != null) {
+            scheduleRestore(policy.restoreAfterMillis);
+        }
+
+        if (listener != null) {
+            listener.onTrim(level, policy,
+                    Math.max(0, heapBefore - Debug.getNativeHeapAllocatedSize()),
+                    System.nanoTime() - start);
+        }
+    }
+
+    private synchronized void scheduleRestore(long delayMillis) {
+        if (closed) {
+            return;
+        }
+
+        if (restore != null) {
+            restore.cancel(false);
+        }
+
+        // the restore itself may have to wait for a connection, which is
+        // not allowed on the shared scheduler thread
+        restore = BackgroundScheduler.schedule(() -> {
+            synchronized (this) {
+                restore = null;
+
+                if (!closed) {
+                    TRIM.execute(this::restoreCacheSize);
+                }
+            }
+        }, delayMillis);
+    }
+
+    private void restoreCacheSize() {
+        Integer cacheSize;
+
+        synchronized (this) {
+            if (closed || restore != null) {
+                // closed, or trimmed again, since this was queued
+                return;
+            }
+
+            cacheSize = savedCacheSize;
+            savedCacheSize = null;
+            trimmedCacheSize = null;
+        }
+
+        if (cacheSize == null) {
+            return;
+        }
+
+        try {
+            db.setCacheSize(cacheSize);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not restore the cache size", e);
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "SafeRoom-Trim");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        result.allowCoreThreadTimeOut(true);
+
+        return result;
+    }
+}
@@ -0,0 +1,49 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * Loads the SQLCipher native library once per process. After the first
+ * successful load, ensureLoaded() is a single volatile read.
+ */
+final class NativeLoader {
+    private static final String LIBRARY = "sqlcipher";
+    private static final Object LOCK = new Object();
+    private static volatile boolean loaded;
+    private static long loadNanos = -1;
+
+    private NativeLoader() {
+        // static methods only
+    }
+
+    static void ensureLoaded() {
+        if (!loaded) {
+            synchronized (LOCK) {
+                if (!loaded) {
+                    long start = System.nanoTime();
+
+                    System.loadLibrary(LIBRARY);
+                    loadNanos = System.nanoTime() - start;
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how long the one real load took, or -1 if the library has
+     * not been loaded yet
+     */
+    static long loadNanos() {
+        return loaded ? loadNanos : -1;
+    }
+}
@@ -0,0 +1,78 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * The phases of opening a database, in the order that they run. Each one
+ * is also a system trace section named "SafeRoom:" plus the phase name.
+ */
+public enum OpenPhase {
+    /**
+     * Loading the SQLCipher native library, which only takes time on the
+     * first open in the process
+     */
+    NATIVE_LOAD,
+    /**
+     * Creating the databases directory, if it does not exist
+     */
+    CREATE_DIRECTORY,
+    /**
+     * Opening the file and deriving the key from the passphrase
+     */
+    OPEN_DATABASE,
+    /**
+     * Running Options preKeySql
+     */
+    PRE_KEY_SQL,
+    /**
+     * Running Options postKeySql
+     */
+    POST_KEY_SQL,
+    /**
+     * Applying write-ahead logging and the CipherProfile journal settings
+     */
+    CONFIGURE,
+    /**
+     * Reading user_version, which is the first read of the encrypted file
+     */
+    GET_VERSION,
+    /**
+     * onCreate(), onUpgrade(), or onDowngrade(), if any of them ran
+     */
+    CREATE_OR_MIGRATE,
+    /**
+     * onOpen()
+     */
+    ON_OPEN,
+    /**
+     * Opening and keying the read-only connections of the reader pool
+     */
+    READER_POOL,
+    /**
+     * Starting background WAL checkpoints
+     */
+    CHECKPOINT_SCHEDULER,
+    /**
+     * Remembering the key for reopens, with Options.Builder.setDerivedKeyCache().
+     * If the passphrase is to be cleared, this derives the key with PBKDF2
+     * and checks it by opening the database again, which can take as long
+     * as OPEN_DATABASE.
+     */
+    KEY_DERIVATION,
+    /**
+     * Work after the database is open: starting the auto-closer and the
+     * memory trimmer
+     */
+    POST_OPEN;
+
+    final String sectionName = "SafeRoom:" + name();
+}
@@ -0,0 +1,106 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.os.Trace;
+
+/**
+ * How long each phase of one database open took. Phases that did not run
+ * on this open report zero.
+ */
+public final class OpenTiming {
+    private static final OpenPhase[] PHASES = OpenPhase.values();
+    private static final String OPEN_SECTION = "SafeRoom:open";
+
+    private final String databaseName;
+    private final long[] phaseNanos = new long[PHASES.length];
+    private final long start;
+    private long totalNanos;
+    private OpenPhase current;
+    private long currentStart;
+
+    OpenTiming(String databaseName) {
+        this.databaseName = databaseName;
+        Trace.beginSection(OPEN_SECTION);
+        start = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase, if any, and starts the next one.
+     */
+    void begin(OpenPhase phase) {
+        endPhase();
+        Trace.beginSection(phase.sectionName);
+        current = phase;
+        currentStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase and the open as a whole. Call this from a
+     * finally block, so the trace sections stay balanced if the open fails.
+     */
+    void finish() {
+        endPhase();
+        totalNanos = System.nanoTime() - start;
+        Trace.endSection();
+    }
+
+    private void endPhase() {
+        if (current != null) {
+            phaseNanos[current.ordinal()] += System.nanoTime() - currentStart;
+            current = null;
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * @return the name of the database that was opened
+     */
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    /**
+     * @param phase the phase of interest
+     * @return how long that phase took, in nanoseconds
+     */
+    public long getNanos(OpenPhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return how long the whole open took, in nanoseconds, including time
+     * between phases
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("OpenTiming{")
+                .append(databaseName)
+                .append(", total=")
+                .append(totalNanos / 1000)
+                .append("us");
+
+        for (OpenPhase phase : PHASES) {
+            result.append(", ")
+                    .append(phase.name())
+                    .append('=')
+                    .append(phaseNanos[phase.ordinal()] / 1000)
+                    .append("us");
+        }
+
+        return result.append('}').toString();
+    }
+}
@@ -0,0 +1,24 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * Receives a per-phase breakdown of each database open. Register one via
+ * SafeHelperFactory.Options.Builder.setOpenTrace(). It is called on the
+ * thread that opened the database, after onOpen(), so keep it short.
+ */
+public interface OpenTrace {
+    /**
+     * @param timing how long each phase of the open took
+     */
+    void onOpenTimed(OpenTiming timing);
+}
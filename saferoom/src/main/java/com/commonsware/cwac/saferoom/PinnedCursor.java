@@ -0,0 +1,47 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import net.zetetic.database.sqlcipher.SQLiteCursor;
+import net.zetetic.database.sqlcipher.SQLiteCursorDriver;
+import net.zetetic.database.sqlcipher.SQLiteQuery;
+
+/**
+ * SQLiteCursor that keeps a CursorHold until it is closed, so that its
+ * connection stays open while it can still fill its window
+ */
+final class PinnedCursor extends SQLiteCursor {
+    private final CursorHold hold;
+    private boolean held = true;
+
+    PinnedCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+                 CursorHold hold) {
+        super(driver, editTable, query);
+        this.hold = hold;
+        hold.acquire();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            if (held) {
+                held = false;
+                hold.release();
+            }
+        }
+    }
+}
@@ -14,16 +14,22 @@ package com.commonsware.cwac.saferoom;
 import androidx.annotation.NonNull;
 import androidx.sqlite.db.SupportSQLiteProgram;
 
-import net.zetetic.database.sqlcipher.SQLiteProgram;
-
 /**
- * SupportSQLiteProgram implementation that wraps SQLCipher for Android's
- * implementation
+ * SupportSQLiteProgram implementation that wraps a statement compiled on the
+ * backend's connection
  */
 class Program implements SupportSQLiteProgram {
-    private final SQLiteProgram delegate;
+    private SqlStatement delegate;
+
+    Program(SqlStatement delegate) {
+        this.delegate = delegate;
+    }
 
-    Program(SQLiteProgram delegate) {
+    /**
+     * Points this at a program compiled on another connection, for a
+     * Statement whose connection was closed for being idle
+     */
+    void setDelegate(SqlStatement delegate) {
         this.delegate = delegate;
     }
 
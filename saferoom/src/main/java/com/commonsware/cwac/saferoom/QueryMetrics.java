@@ -0,0 +1,117 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms for the SQL run through one database, grouped by
+ * SQL fingerprint. Enable them with
+ * SafeHelperFactory.Options.Builder.setQueryMetricsEnabled(), and get them
+ * with SafeHelperFactory.getQueryMetrics().
+ * <p>
+ * While these are enabled, every query() steps through all of its rows to
+ * fill the cursor's window before it returns, so that the histogram covers
+ * running the query. A caller that reads only the first few rows of a large
+ * result pays for the rest as well.
+ */
+public final class QueryMetrics {
+    /**
+     * Once there are this many fingerprints, new ones are counted under
+     * OTHER_FINGERPRINT, so that SQL built with inlined values cannot grow
+     * the metrics without bound
+     */
+    public static final int MAX_FINGERPRINTS = 512;
+
+    /**
+     * The fingerprint for SQL beyond the first MAX_FINGERPRINTS fingerprints
+     */
+    public static final String OTHER_FINGERPRINT = "<other>";
+
+    // raw SQL strings seen recently, so the common case skips normalizing
+    private static final int MAX_RAW_SQL = 1024;
+
+    private final LinkedHashMap<String, LatencyHistogram> byRawSql =
+            new LinkedHashMap<String, LatencyHistogram>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LatencyHistogram> eldest) {
+                    return size() > MAX_RAW_SQL;
+                }
+            };
+    private final ConcurrentHashMap<String, LatencyHistogram> byFingerprint =
+            new ConcurrentHashMap<>();
+
+    QueryMetrics() {
+        // created by Database when enabled in the options
+    }
+
+    /**
+     * @return statistics for each fingerprint recorded so far
+     */
+    public List<QueryStats> snapshot() {
+        List<QueryStats> result = new ArrayList<>(byFingerprint.size());
+
+        for (LatencyHistogram histogram : byFingerprint.values()) {
+            result.add(histogram.snapshot());
+        }
+
+        return result;
+    }
+
+    /**
+     * Zeroes all of the counters, such as after shipping a snapshot.
+     * Executions that are recorded while this runs may be lost.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : byFingerprint.values()) {
+            histogram.reset();
+        }
+    }
+
+    LatencyHistogram histogramFor(String sql) {
+        LatencyHistogram result;
+
+        synchronized (byRawSql) {
+            result = byRawSql.get(sql);
+        }
+
+        if (result == null) {
+            String fingerprint = SqlFingerprint.of(sql);
+
+            result = byFingerprint.get(fingerprint);
+
+            if (result == null) {
+                if (byFingerprint.size() >= MAX_FINGERPRINTS) {
+                    fingerprint = OTHER_FINGERPRINT;
+                }
+
+                LatencyHistogram created = new LatencyHistogram(fingerprint);
+
+                result = byFingerprint.putIfAbsent(fingerprint, created);
+
+                if (result == null) {
+                    result = created;
+                }
+            }
+
+            synchronized (byRawSql) {
+                byRawSql.put(sql, result);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * A snapshot of the latencies recorded for one SQL fingerprint: the SQL
+ * with its literals and parameters replaced by ?, its whitespace and
+ * comments normalized, and its IN lists collapsed to IN(?).
+ */
+public final class QueryStats {
+    private final String fingerprint;
+    private final long[] buckets;
+    private final long count;
+    private final long totalNanos;
+
+    QueryStats(String fingerprint, long[] buckets, long totalNanos) {
+        long sum = 0;
+
+        for (long bucket : buckets) {
+            sum += bucket;
+        }
+
+        this.fingerprint = fingerprint;
+        this.buckets = buckets;
+        this.count = sum;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @return the normalized SQL that these statistics cover
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return how many executions were recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the total time of all recorded executions, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the number of executions in each latency bucket; see
+     * getBucketUpperBoundNanos() for the bucket boundaries
+     */
+    public long[] getBucketCounts() {
+        return buckets.clone();
+    }
+
+    /**
+     * @param bucket index into getBucketCounts()
+     * @return the exclusive upper bound of that bucket, in nanoseconds, or
+     * Long.MAX_VALUE for the last bucket
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        if (bucket < 0 || bucket >= LatencyHistogram.BUCKETS) {
+            throw new IllegalArgumentException("No such bucket: " + bucket);
+        }
+
+        return (bucket == LatencyHistogram.BUCKETS - 1) ? Long.MAX_VALUE : 1024L << bucket;
+    }
+
+    /**
+     * @param percentile a value from 0 to 100
+     * @return the upper bound of the bucket holding that percentile, in
+     * nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100");
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            seen += buckets[bucket];
+
+            if (seen >= rank && seen > 0) {
+                return getBucketUpperBoundNanos(bucket);
+            }
+        }
+
+        return getBucketUpperBoundNanos(buckets.length - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStats{" + fingerprint + ", count=" + count + ", total="
+                + totalNanos / 1000 + "us, p50<" + getPercentileNanos(50) / 1000
+                + "us, p99<" + getPercentileNanos(99) / 1000 + "us}";
+    }
+}
@@ -0,0 +1,216 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed set of read-only connections to a WAL-mode database, opened with the
+ * same key and pre-key/post-key SQL as the writer. Queries that only read are
+ * spread across them, preferring a reader that nothing holds, so readers do
+ * not queue behind the writer connection or behind a long read.
+ */
+class ReaderPool {
+    private final SqlConnection[] readers;
+    private final AtomicIntegerArray holds;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReaderPool(String path, byte[] passphrase, SafeHelperFactory.Options options) {
+        readers = new SqlConnection[options.readerPoolSize];
+        holds = new AtomicIntegerArray(readers.length);
+
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = options.backend.open(path, passphrase, SqlBackend.OPEN_READONLY,
+                        options);
+                Helper.OpenHelper.runKeySql(readers[i], options);
+
+                if (options.cipherProfile != null) {
+                    options.cipherProfile.applyToReader(readers[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * SQLCipher does not expose sqlite3_stmt_readonly(), so this looks at the
+     * leading keyword instead, and only says yes for ones that cannot write:
+     * SELECT and VALUES, optionally behind EXPLAIN or EXPLAIN QUERY PLAN.
+     * Anything else, such as a PRAGMA (which may set something, and whose
+     * per-connection value lives on the writer), a WITH (which may lead to an
+     * INSERT) or a statement with RETURNING, goes to the writer.
+     *
+     * @param sql the SQL of a query
+     * @return true if the SQL can run on a read-only reader
+     */
+    static boolean canRead(String sql) {
+        int i = skipIgnored(sql, 0);
+        int end = keywordEnd(sql, i);
+
+        if (isKeyword(sql, i, end, "EXPLAIN")) {
+            i = skipIgnored(sql, end);
+            end = keywordEnd(sql, i);
+
+            if (isKeyword(sql, i, end, "QUERY")) {
+                i = skipIgnored(sql, end);
+                end = keywordEnd(sql, i);
+
+                if (!isKeyword(sql, i, end, "PLAN")) {
+                    return false;
+                }
+
+                i = skipIgnored(sql, end);
+                end = keywordEnd(sql, i);
+            }
+        }
+
+        return isKeyword(sql, i, end, "SELECT") || isKeyword(sql, i, end, "VALUES");
+    }
+
+    private static int skipIgnored(String sql, int i) {
+        int length = sql.length();
+
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+
+                i = (eol < 0) ? length : eol + 1;
+            } else if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+
+                i = (close < 0) ? length : close + 2;
+            } else {
+                break;
+            }
+        }
+
+        return i;
+    }
+
+    private static int keywordEnd(String sql, int i) {
+        while (i < sql.length() && Character.isLetter(sql.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static boolean isKeyword(String sql, int start, int end, String keyword) {
+        return end - start == keyword.length()
+                && sql.regionMatches(true, start, keyword, 0, keyword.length());
+    }
+
+    /**
+     * Picks a reader for a query and holds it until release(). A reader that
+     * nothing holds is preferred, starting from the next one round-robin;
+     * if every reader is held, the round-robin one is shared.
+     *
+     * @return the index of the reader, for reader() and release()
+     */
+    int acquire() {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % readers.length;
+
+        for (int i = 0; i < readers.length; i++) {
+            int index = (start + i) % readers.length;
+
+            if (holds.compareAndSet(index, 0, 1)) {
+                return index;
+            }
+        }
+
+        holds.incrementAndGet(start);
+
+        return start;
+    }
+
+    /**
+     * Holds a reader once more, such as for a cursor that outlives the call
+     * that acquired the reader
+     */
+    void retain(int index) {
+        holds.incrementAndGet(index);
+    }
+
+    /**
+     * Lets go of a hold from acquire() or retain()
+     */
+    void release(int index) {
+        holds.decrementAndGet(index);
+    }
+
+    /**
+     * @return the reader connection with that index
+     */
+    SqlConnection reader(int index) {
+        return readers[index];
+    }
+
+    /**
+     * Runs SQL, such as a per-connection PRAGMA, on every reader connection,
+     * waiting for each one to be free
+     */
+    void execOnEach(String sql) {
+        for (SqlConnection reader : readers) {
+            reader.rawExecSQL(sql);
+        }
+    }
+
+    /**
+     * Sets the locale on every reader, as the writer's was
+     */
+    void setLocale(Locale locale) {
+        for (SqlConnection reader : readers) {
+            reader.setLocale(locale);
+        }
+    }
+
+    /**
+     * Sets the maximum size of every reader's prepared-statement cache, as
+     * the writer's was
+     */
+    void setMaxSqlCacheSize(int cacheSize) {
+        for (SqlConnection reader : readers) {
+            reader.setMaxSqlCacheSize(cacheSize);
+        }
+    }
+
+    /**
+     * Turns foreign key constraints on or off on every reader, as they were
+     * on the writer
+     */
+    void setForeignKeyConstraintsEnabled(boolean enable) {
+        for (SqlConnection reader : readers) {
+            reader.setForeignKeyConstraintsEnabled(enable);
+        }
+    }
+
+    /**
+     * Closes all reader connections. Cursors that are still open keep their
+     * connection alive until they are closed.
+     */
+    void close() {
+        for (SqlConnection reader : readers) {
+            if (reader != null && reader.isOpen()) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * Receives each row of a query run via SafeHelperFactory.forEachRow(), in
+ * order, in a single forward pass, or the first row of a query run via
+ * SafeHelperFactory.queryRow().
+ */
+public interface RowVisitor {
+    /**
+     * Returning false stops the visits, but not the scan: rows are read
+     * through a Cursor, and its first window fill steps through every row
+     * of the result to count them. Put a LIMIT on the query if only the
+     * first few rows are wanted.
+     *
+     * @param row accessors for the current row; only valid during this call
+     * @return true to continue to the next row, false to stop visiting rows
+     */
+    boolean visit(Row row);
+
+    /**
+     * Typed accessors for the columns of the current row. Column indices
+     * start at 0. The same Row is reused for every row of a query.
+     */
+    interface Row {
+        /**
+         * @return the number of columns in the result
+         */
+        int getColumnCount();
+
+        /**
+         * @param column the column index
+         * @return the name of the column
+         */
+        String getColumnName(int column);
+
+        /**
+         * @param column the column index
+         * @return one of the Cursor.FIELD_TYPE_* values for this row's value
+         */
+        int getType(int column);
+
+        /**
+         * @param column the column index
+         * @return true if this row's value is NULL
+         */
+        boolean isNull(int column);
+
+        /**
+         * @param column the column index
+         * @return the value as a long
+         */
+        long getLong(int column);
+
+        /**
+         * @param column the column index
+         * @return the value as a double
+         */
+        double getDouble(int column);
+
+        /**
+         * @param column the column index
+         * @return the value as a String, or null
+         */
+        String getString(int column);
+
+        /**
+         * @param column the column index
+         * @return the value as a byte array, or null
+         */
+        byte[] getBlob(int column);
+    }
+}
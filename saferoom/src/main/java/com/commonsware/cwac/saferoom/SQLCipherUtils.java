@@ -48,7 +48,6 @@ public class SQLCipherUtils {
      * @return the detected state of the database
      */
     public static State getDatabaseState(Context ctxt, String dbName) {
-        System.loadLibrary("sqlcipher");
         return getDatabaseState(ctxt.getDatabasePath(dbName));
     }
 
@@ -56,14 +55,15 @@ public class SQLCipherUtils {
      * Determine whether or not this database appears to be encrypted, based
      * on whether we can open it without a passphrase.
      * <p>
-     * NOTE: You are responsible for ensuring that net.zetetic.database.sqlcipher.SQLiteDatabase.loadLibs()
-     * is called before calling this method. This is handled automatically with the
-     * getDatabaseState() method that takes a Context as a parameter.
+     * NOTE: this loads the SQLCipher native library if nothing else in the
+     * process has loaded it yet.
      *
      * @param dbPath a File pointing to the database
      * @return the detected state of the database
      */
     public static State getDatabaseState(File dbPath) {
+        NativeLoader.ensureLoaded();
+
         if (dbPath.exists()) {
             try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbPath.getAbsolutePath(), "",
                     null, SQLiteDatabase.OPEN_READONLY, null, null)) {
@@ -176,7 +176,7 @@ public class SQLCipherUtils {
      * @throws IOException if the database file cannot be accessed or encrypted
      */
     public static void encrypt(Context context, File originalFile, byte[] passphrase) throws IOException {
-        System.loadLibrary("sqlcipher");
+        NativeLoader.ensureLoaded();
 
         if (originalFile.exists()) {
             File newFile = File.createTempFile("sqlcipherutils", "tmp", context.getCacheDir());
@@ -244,7 +244,7 @@ public class SQLCipherUtils {
      * @throws IOException if the database file cannot be accessed or encrypted
      */
     public static void decrypt(Context context, File originalFile, byte[] passphrase) throws IOException {
-        System.loadLibrary("sqlcipher");
+        NativeLoader.ensureLoaded();
 
         if (originalFile.exists()) {
             File newFile = File.createTempFile("sqlcipherutils", "tmp", context.getCacheDir());
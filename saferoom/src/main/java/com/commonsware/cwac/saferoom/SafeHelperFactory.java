@@ -16,14 +16,21 @@ package com.commonsware.cwac.saferoom;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.text.Editable;
 
 import androidx.annotation.NonNull;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteQuery;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * SupportSQLiteOpenHelper.Factory implementation, for use with Room
@@ -32,6 +39,9 @@ import java.util.Arrays;
 public class SafeHelperFactory implements SupportSQLiteOpenHelper.Factory {
     public static final String POST_KEY_SQL_MIGRATE = "PRAGMA cipher_migrate;";
     public static final String POST_KEY_SQL_V3 = "PRAGMA cipher_compatibility = 3;";
+    private static final int RAW_KEY_LENGTH = 32;
+    private static final int RAW_SALT_LENGTH = 16;
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(UTF_8);
 
     final private byte[] passphrase;
     final private Options options;
@@ -89,6 +99,108 @@ public class SafeHelperFactory implements SupportSQLiteOpenHelper.Factory {
         return (result);
     }
 
+    /**
+     * Creates a SafeHelperFactory from a raw 256-bit key, such as one held
+     * in the Android Keystore, instead of a passphrase. SQLCipher uses the key
+     * as-is, skipping PBKDF2 key derivation when opening the database.
+     * <p>
+     * The key will be filled in with zeros as part of this call.
+     *
+     * @param key the 32-byte key
+     * @return a SafeHelperFactory
+     */
+    public static SafeHelperFactory fromRawKey(byte[] key) {
+        return fromRawKey(key, null, Options.builder().build());
+    }
+
+    /**
+     * Creates a SafeHelperFactory from a raw 256-bit key, such as one held
+     * in the Android Keystore, instead of a passphrase. SQLCipher uses the key
+     * as-is, skipping PBKDF2 key derivation when opening the database.
+     * <p>
+     * Unless the options say otherwise, the key will be filled in with zeros
+     * as part of this call.
+     *
+     * @param key     the 32-byte key
+     * @param salt    the 16-byte salt to use for a new database, or null to
+     *                have SQLCipher generate one. An existing database keeps
+     *                the salt that it was created with.
+     * @param options options for pre-key, post-key SQL
+     * @return a SafeHelperFactory
+     */
+    public static SafeHelperFactory fromRawKey(byte[] key, byte[] salt, Options options) {
+        if (key == null || key.length != RAW_KEY_LENGTH) {
+            throw new IllegalArgumentException("The raw key must be " + RAW_KEY_LENGTH + " bytes");
+        }
+
+        if (salt != null && salt.length != RAW_SALT_LENGTH) {
+            throw new IllegalArgumentException("The salt must be " + RAW_SALT_LENGTH + " bytes");
+        }
+
+        SafeHelperFactory result = new SafeHelperFactory(toRawKeySpec(key, salt), options);
+
+        if (options.clearPassphrase) {
+            Arrays.fill(key, (byte) 0);
+        }
+
+        return (result);
+    }
+
+    /**
+     * Formats a key, and optionally a salt, as the blob literal that SQLCipher
+     * recognizes as a raw key: x'...' with 64 hex digits for the key, then 32
+     * for the salt. Built directly into bytes, so no String holds the key.
+     */
+    static byte[] toRawKeySpec(byte[] key, byte[] salt) {
+        int length = key.length + (salt == null ? 0 : salt.length);
+        byte[] result = new byte[length * 2 + 3];
+        int i = 0;
+
+        result[i++] = 'x';
+        result[i++] = '\'';
+        i = appendHex(result, i, key);
+
+        if (salt != null) {
+            i = appendHex(result, i, salt);
+        }
+
+        result[i] = '\'';
+
+        return (result);
+    }
+
+    private static int appendHex(byte[] dest, int offset, byte[] source) {
+        for (byte b : source) {
+            dest[offset++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            dest[offset++] = HEX_DIGITS[b & 0x0F];
+        }
+
+        return offset;
+    }
+
+    /**
+     * @return true if SQLCipher will take the passphrase as a raw key, in the
+     * form that toRawKeySpec() produces, rather than derive a key from it
+     */
+    static boolean isRawKeySpec(byte[] passphrase) {
+        int length = passphrase.length;
+
+        if ((length != RAW_KEY_LENGTH * 2 + 3
+                && length != (RAW_KEY_LENGTH + RAW_SALT_LENGTH) * 2 + 3)
+                || passphrase[0] != 'x' || passphrase[1] != '\''
+                || passphrase[length - 1] != '\'') {
+            return (false);
+        }
+
+        for (int i = 2; i < length - 1; i++) {
+            if (Character.digit(passphrase[i], 16) < 0) {
+                return (false);
+            }
+        }
+
+        return (true);
+    }
+
     /**
      * Changes the passphrase associated with this database. The
      * char[] is *not* cleared by this method -- please zero it
@@ -126,6 +238,262 @@ public class SafeHelperFactory implements SupportSQLiteOpenHelper.Factory {
         }
     }
 
+    /**
+     * Wraps a query so that it has its own timeout, instead of the one set
+     * with Options.Builder.setQueryTimeout(). The query is interrupted, and
+     * query() throws an OperationCanceledException, if it takes longer than
+     * this to step through its results.
+     *
+     * @param query         the query to run
+     * @param timeoutMillis the timeout in milliseconds, or 0 for no timeout
+     * @return a query to pass to query() on a database from a SafeHelperFactory
+     */
+    public static SupportSQLiteQuery withTimeout(SupportSQLiteQuery query, long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Query timeout cannot be negative");
+        }
+
+        return new TimedQuery(query, timeoutMillis);
+    }
+
+    /**
+     * Returns the cache of compiled statements for this database, so you can
+     * read its hit, miss, and eviction counters.
+     *
+     * @param db the database, from a SafeHelperFactory
+     * @return the statement cache, or null if it was not enabled via
+     * Options.Builder.setStatementCacheSize()
+     */
+    public static StatementCache getStatementCache(SupportSQLiteDatabase db) {
+        if (db instanceof Database) {
+            return ((Database) db).getStatementCache();
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Returns the latency histograms for this database, so you can take
+     * snapshots of them to report.
+     *
+     * @param db the database, from a SafeHelperFactory
+     * @return the query metrics, or null if they were not enabled via
+     * Options.Builder.setQueryMetricsEnabled()
+     */
+    public static QueryMetrics getQueryMetrics(SupportSQLiteDatabase db) {
+        if (db instanceof Database) {
+            return ((Database) db).getQueryMetrics();
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Returns the slow-query log for this database, so you can dump its
+     * entries.
+     *
+     * @param db the database, from a SafeHelperFactory
+     * @return the slow-query log, or null if it was not enabled via
+     * Options.Builder.setSlowQueryLog()
+     */
+    public static SlowQueryLog getSlowQueryLog(SupportSQLiteDatabase db) {
+        if (db instanceof Database) {
+            return ((Database) db).getSlowQueryLog();
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Inserts many rows at once, much faster than calling insert() for each
+     * one. All of the rows go in one transaction, which nests inside any
+     * transaction that you already have open. One statement is compiled
+     * for each distinct set of columns and reused for every row with that
+     * set.
+     *
+     * @param db                the database, from a SafeHelperFactory
+     * @param table             the table to insert into
+     * @param conflictAlgorithm one of the SQLiteDatabase.CONFLICT_* values
+     * @param rows              the rows to insert; none may be empty
+     * @return the rowids of the new rows and the throughput of the batch
+     */
+    public static BatchInsertResult insertAll(SupportSQLiteDatabase db, String table,
+                                              int conflictAlgorithm,
+                                              Iterable<ContentValues> rows) {
+        if (db instanceof Database) {
+            return ((Database) db).insertAll(table, conflictAlgorithm, rows);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Hands a write to the group-commit writer, which runs it in a
+     * transaction shared with the other writes submitted around the same
+     * time. The Future completes once that transaction commits, or fails
+     * with whatever the write threw.
+     * <p>
+     * The writer cannot run the write while the calling thread has a
+     * transaction open, so get() on the Future throws an
+     * IllegalStateException if called inside a transaction or another
+     * WriteTask, rather than waiting forever.
+     *
+     * @param db   the database, from a SafeHelperFactory whose Options enabled
+     *             group commit via Options.Builder.setGroupCommit()
+     * @param task the write to run
+     * @param <T>  the type of the result of the write
+     * @return a Future for the result of the write
+     */
+    public static <T> Future<T> submitWrite(SupportSQLiteDatabase db, WriteTask<T> task) {
+        if (db instanceof Database) {
+            return ((Database) db).submitWrite(task);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Runs a query and hands each row to the visitor, in one forward pass,
+     * rather than returning a Cursor. The visitor gets typed accessors for
+     * the current row. The query runs on a reader connection when there is a
+     * reader pool.
+     * <p>
+     * This is a Cursor loop underneath, so it is no faster than one. In
+     * particular, a visitor that stops early does not save the scan, as the
+     * Cursor counts every row of the result first; use a LIMIT for that.
+     *
+     * @param db      the database, from a SafeHelperFactory
+     * @param query   the query to run
+     * @param visitor called for each row, in order
+     * @return the number of rows visited
+     */
+    public static long forEachRow(SupportSQLiteDatabase db, SupportSQLiteQuery query,
+                                  RowVisitor visitor) {
+        if (db instanceof Database) {
+            return ((Database) db).forEachRow(query, visitor);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Runs a query and reads its leading columns into the primitive arrays
+     * of the batch, rather than returning a Cursor. The consumer gets the
+     * batch each time it fills, and once more for the last partial batch,
+     * and can stop the read early. The same batch can be reused across
+     * queries, so steady-state reads allocate nothing per row, apart from
+     * the byte arrays that SQLCipher returns for BLOB columns. The query
+     * runs on a reader connection when there is a reader pool.
+     *
+     * @param db       the database, from a SafeHelperFactory
+     * @param query    the query to run
+     * @param batch    where to read each batch of rows
+     * @param consumer called for each batch, in order
+     * @return the number of rows read
+     */
+    public static long readColumns(SupportSQLiteDatabase db, SupportSQLiteQuery query,
+                                   ColumnBatch batch, ColumnBatch.Consumer consumer) {
+        if (db instanceof Database) {
+            return ((Database) db).readColumns(query, batch, consumer);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Runs a query for a single value, such as a count or an existence
+     * check, and returns it directly, rather than through a Cursor. The
+     * query runs on a compiled statement, reused via the statement cache
+     * when there is one, so no Cursor or CursorWindow is created. Queries
+     * with a timeout use a Cursor, so that they can be cancelled.
+     *
+     * @param db    the database, from a SafeHelperFactory
+     * @param query the query to run
+     * @return the first column of the first row, as a long
+     * @throws android.database.sqlite.SQLiteDoneException if there are no rows
+     */
+    public static long queryLong(SupportSQLiteDatabase db, SupportSQLiteQuery query) {
+        if (db instanceof Database) {
+            return ((Database) db).queryLong(query);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * As queryLong(), for a String
+     *
+     * @param db    the database, from a SafeHelperFactory
+     * @param query the query to run
+     * @return the first column of the first row, as a String, or null
+     * @throws android.database.sqlite.SQLiteDoneException if there are no rows
+     */
+    public static String queryString(SupportSQLiteDatabase db, SupportSQLiteQuery query) {
+        if (db instanceof Database) {
+            return ((Database) db).queryString(query);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Runs a query for a single BLOB and returns it directly. SQLCipher
+     * can only return a BLOB from a compiled statement through a file
+     * descriptor, so this reads it through a Cursor.
+     *
+     * @param db    the database, from a SafeHelperFactory
+     * @param query the query to run
+     * @return the first column of the first row, as a byte array, or null
+     * @throws android.database.sqlite.SQLiteDoneException if there are no rows
+     */
+    public static byte[] queryBlob(SupportSQLiteDatabase db, SupportSQLiteQuery query) {
+        if (db instanceof Database) {
+            return ((Database) db).queryBlob(query);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Runs a query and hands its first row, if there is one, to the
+     * visitor, whose return value is ignored. Use LIMIT 1 in the query so
+     * that no more rows are read than needed.
+     *
+     * @param db      the database, from a SafeHelperFactory
+     * @param query   the query to run
+     * @param visitor called for the first row
+     * @return true if there was a row, false otherwise
+     */
+    public static boolean queryRow(SupportSQLiteDatabase db, SupportSQLiteQuery query,
+                                   RowVisitor visitor) {
+        if (db instanceof Database) {
+            return ((Database) db).queryRow(query, visitor);
+        } else {
+            throw new IllegalArgumentException("Database is not from CWAC-SafeRoom");
+        }
+    }
+
+    /**
+     * Opens the database on the supplied Executor, so that key derivation and
+     * the rest of the open happen off of the calling thread. With Room, pass
+     * in getOpenHelper() from your RoomDatabase, typically from
+     * Application.onCreate(). Calls to getWritableDatabase() or
+     * getReadableDatabase() made while this open is in flight wait for it,
+     * rather than starting a second open.
+     *
+     * @param helper   the open helper, from a SafeHelperFactory
+     * @param executor where to run the open
+     * @return a Future for the opened database
+     */
+    public static Future<SupportSQLiteDatabase> openAsync(SupportSQLiteOpenHelper helper,
+                                                          Executor executor) {
+        if (helper instanceof Helper) {
+            return ((Helper) helper).openAsync(executor);
+        } else {
+            throw new IllegalArgumentException("Open helper is not from CWAC-SafeRoom");
+        }
+    }
+
     /**
      * Standard constructor.
      * <p>
@@ -275,10 +643,155 @@ public class SafeHelperFactory implements SupportSQLiteOpenHelper.Factory {
          */
         public final boolean clearPassphrase;
 
-        private Options(String preKeySql, String postKeySql, boolean clearPassphrase) {
-            this.preKeySql = preKeySql;
-            this.postKeySql = postKeySql;
-            this.clearPassphrase = clearPassphrase;
+        /**
+         * Maximum number of idle compiled statements cached per database, or
+         * 0 if compiled statements are not cached. Defaults to 0.
+         */
+        public final int statementCacheSize;
+
+        /**
+         * Maximum time, in milliseconds, that a query may spend producing its
+         * results before it is cancelled, or 0 for no limit. Defaults to 0.
+         */
+        public final long queryTimeoutMillis;
+
+        /**
+         * Number of read-only connections opened alongside the writer when the
+         * database uses write-ahead logging, or 0 to read through the writer.
+         * Defaults to 0.
+         */
+        public final int readerPoolSize;
+
+        /**
+         * WAL checkpoint to run when the database is closed, or null to leave
+         * that to SQLite. Defaults to null.
+         */
+        public final CheckpointMode checkpointOnClose;
+
+        /**
+         * WAL checkpoint to run on a background thread, or null to leave
+         * checkpoints to SQLite. Defaults to null.
+         */
+        public final CheckpointMode backgroundCheckpointMode;
+
+        /**
+         * WAL size, in bytes, that triggers a background checkpoint after a
+         * write, or 0 to not check the size
+         */
+        public final long checkpointWalSizeBytes;
+
+        /**
+         * Time without writes, in milliseconds, that triggers a background
+         * checkpoint, or 0 to not check for idleness
+         */
+        public final long checkpointIdleMillis;
+
+        /**
+         * Listener told about each background checkpoint, or null
+         */
+        public final CheckpointListener checkpointListener;
+
+        /**
+         * Cipher and performance settings applied around keying, or null to
+         * use the SQLCipher defaults. Defaults to null.
+         */
+        public final CipherProfile cipherProfile;
+
+        /**
+         * Listener told how long each phase of each open took, or null
+         */
+        public final OpenTrace openTrace;
+
+        /**
+         * True to record latency histograms per SQL fingerprint. Defaults to
+         * false.
+         */
+        public final boolean queryMetricsEnabled;
+
+        /**
+         * Queries and statements that take at least this long, in
+         * milliseconds, go into the slow-query log, or 0 for no log.
+         * Defaults to 0.
+         */
+        public final long slowQueryThresholdMillis;
+
+        /**
+         * Most entries that the slow-query log holds
+         */
+        public final int slowQueryLogCapacity;
+
+        /**
+         * How long, in milliseconds, the group-commit writer waits for more
+         * writes before committing a batch
+         */
+        public final long groupCommitWindowMillis;
+
+        /**
+         * Most writes that the group-commit writer puts in one transaction, or
+         * 0 if group commit is disabled. Defaults to 0.
+         */
+        public final int groupCommitMaxBatch;
+
+        /**
+         * How long, in milliseconds, a helper keeps the derived key after it
+         * first opens its database, or 0 to derive the key on every open.
+         * Defaults to 0.
+         */
+        public final long derivedKeyTtlMillis;
+
+        /**
+         * How long, in milliseconds, the database may go unused before its
+         * connections are closed, to be reopened on next use, or 0 to keep
+         * them open. Defaults to 0.
+         */
+        public final long autoCloseIdleMillis;
+
+        /**
+         * What to release for each ComponentCallbacks2 trim level, keyed by
+         * the lowest level that it applies to; empty to not react to trims.
+         * Defaults to empty.
+         */
+        public final SortedMap<Integer, TrimPolicy> trimPolicies;
+
+        /**
+         * Listener told about each memory trim, or null
+         */
+        public final TrimListener trimListener;
+
+        /**
+         * Opens the connections; SQLCipher for Android unless tests swap it
+         */
+        final SqlBackend backend;
+
+        // what new Builders use, so host tests can run whole suites of
+        // on-device tests against a plain SQLite build
+        static volatile SqlBackend defaultBackend = CipherBackend.INSTANCE;
+
+        private Options(Builder builder) {
+            this.preKeySql = builder.preKeySql;
+            this.postKeySql = builder.postKeySql;
+            this.clearPassphrase = builder.clearPassphrase;
+            this.statementCacheSize = builder.statementCacheSize;
+            this.queryTimeoutMillis = builder.queryTimeoutMillis;
+            this.readerPoolSize = builder.readerPoolSize;
+            this.checkpointOnClose = builder.checkpointOnClose;
+            this.backgroundCheckpointMode = builder.backgroundCheckpointMode;
+            this.checkpointWalSizeBytes = builder.checkpointWalSizeBytes;
+            this.checkpointIdleMillis = builder.checkpointIdleMillis;
+            this.checkpointListener = builder.checkpointListener;
+            this.cipherProfile = builder.cipherProfile;
+            this.openTrace = builder.openTrace;
+            this.queryMetricsEnabled = builder.queryMetricsEnabled;
+            this.slowQueryThresholdMillis = builder.slowQueryThresholdMillis;
+            this.slowQueryLogCapacity = builder.slowQueryLogCapacity;
+            this.groupCommitWindowMillis = builder.groupCommitWindowMillis;
+            this.groupCommitMaxBatch = builder.groupCommitMaxBatch;
+            this.derivedKeyTtlMillis = builder.derivedKeyTtlMillis;
+            this.autoCloseIdleMillis = builder.autoCloseIdleMillis;
+            this.trimPolicies =
+                    Collections.unmodifiableSortedMap(new TreeMap<>(builder.trimPolicies));
+            this.trimListener = builder.trimListener;
+            this.backend = builder.backend;
         }
 
         /**
@@ -297,6 +810,26 @@ public class SafeHelperFactory implements SupportSQLiteOpenHelper.Factory {
             private String preKeySql;
             private String postKeySql;
             private boolean clearPassphrase = true;
+            private int statementCacheSize;
+            private long queryTimeoutMillis;
+            private int readerPoolSize;
+            private CheckpointMode checkpointOnClose;
+            private CheckpointMode backgroundCheckpointMode;
+            private long checkpointWalSizeBytes;
+            private long checkpointIdleMillis;
+            private CheckpointListener checkpointListener;
+            private CipherProfile cipherProfile;
+            private OpenTrace openTrace;
+            private boolean queryMetricsEnabled;
+            private long slowQueryThresholdMillis;
+            private int slowQueryLogCapacity;
+            private long groupCommitWindowMillis;
+            private int groupCommitMaxBatch;
+            private long derivedKeyTtlMillis;
+            private long autoCloseIdleMillis;
+            private final TreeMap<Integer, TrimPolicy> trimPolicies = new TreeMap<>();
+            private TrimListener trimListener;
+            private SqlBackend backend = defaultBackend;
 
             private Builder() {
                 // use the builder() method on SafeRoomHelper.Options
@@ -333,11 +866,389 @@ public class SafeHelperFactory implements SupportSQLiteOpenHelper.Factory {
                 return this;
             }
 
+            /**
+             * Enables caching of compiled statements. A statement from
+             * compileStatement() goes back into the cache when it is closed, and
+             * a later compileStatement() call for the same SQL gets it back
+             * with its bindings cleared, rather than compiling it again. This
+             * also covers update() and delete(), whose generated SQL is reused
+             * for calls with the same table, columns, and where clause.
+             * <p>
+             * SQLCipher already caches the native prepared statements of each
+             * connection; this cache saves the connection lookup and the
+             * allocations of compileStatement() on top of that, and raises the
+             * connection's cache to match its size, up to 100.
+             *
+             * @param size maximum number of idle statements to cache per database,
+             *             or 0 to disable the cache. Defaults to 0.
+             * @return the builder, for further configuration
+             */
+            public Builder setStatementCacheSize(int size) {
+                if (size < 0) {
+                    throw new IllegalArgumentException("Statement cache size cannot be negative");
+                }
+
+                this.statementCacheSize = size;
+
+                return this;
+            }
+
+            /**
+             * Sets a timeout for every query run through the database. A query
+             * that takes longer than this to step through its results is
+             * interrupted, and query() throws an OperationCanceledException.
+             * Use SafeHelperFactory.withTimeout() to override this for one query.
+             *
+             * @param timeoutMillis the timeout in milliseconds, or 0 for no
+             *                      timeout. Defaults to 0.
+             * @return the builder, for further configuration
+             */
+            public Builder setQueryTimeout(long timeoutMillis) {
+                if (timeoutMillis < 0) {
+                    throw new IllegalArgumentException("Query timeout cannot be negative");
+                }
+
+                this.queryTimeoutMillis = timeoutMillis;
+
+                return this;
+            }
+
+            /**
+             * Opens a pool of read-only connections, keyed with the same
+             * passphrase and pre-key/post-key SQL, alongside the single writer
+             * connection. Queries made outside of a transaction that start
+             * with SELECT or VALUES are spread across the pool, preferring
+             * readers that no open cursor is using; everything else, including
+             * PRAGMAs, WITH and RETURNING, stays on the writer. Readers get the
+             * locale, foreign key and SQL cache settings made on the database.
+             * <p>
+             * The pool is only used for databases that have write-ahead logging
+             * enabled via setWriteAheadLoggingEnabled() on the open helper
+             * before they are opened, as Room does, since only then can readers
+             * run while a write is in progress.
+             *
+             * @param size number of reader connections, or 0 to disable the pool.
+             *             Defaults to 0.
+             * @return the builder, for further configuration
+             */
+            public Builder setReaderPoolSize(int size) {
+                if (size < 0) {
+                    throw new IllegalArgumentException("Reader pool size cannot be negative");
+                }
+
+                this.readerPoolSize = size;
+
+                return this;
+            }
+
+            /**
+             * SQLite checkpoints the write-ahead log when the last connection to
+             * the database closes, and replays any log left behind when the
+             * database is next opened, so no checkpoint is needed when closing.
+             * Use this if you want one anyway, such as TRUNCATE to leave no
+             * -wal file behind while the database is open elsewhere.
+             *
+             * @param mode checkpoint to run when closing a database that uses
+             *             write-ahead logging, or null to leave that to SQLite.
+             *             Defaults to null.
+             * @return the builder, for further configuration
+             */
+            public Builder setCheckpointOnClose(CheckpointMode mode) {
+                this.checkpointOnClose = mode;
+
+                return this;
+            }
+
+            /**
+             * Moves WAL checkpoints off of the threads doing the writes. SQLite's
+             * auto-checkpoint, which runs inline when a write commits, is turned
+             * off, and checkpoints instead run on a background thread once the
+             * WAL reaches a size threshold or the database has gone without
+             * writes for a while, whichever comes first.
+             * <p>
+             * The WAL size is checked once every 16 writes, so it can overshoot
+             * the threshold by up to that many transactions. To keep the -wal
+             * file size meaningful, journal_size_limit is set to 0, so SQLite
+             * truncates the file whenever it restarts the log.
+             * <p>
+             * This only applies to databases that have write-ahead logging
+             * enabled via setWriteAheadLoggingEnabled() on the open helper
+             * before they are opened.
+             *
+             * @param mode         checkpoint mode to use, usually PASSIVE or
+             *                     TRUNCATE, or null to leave checkpoints to SQLite
+             * @param walSizeBytes WAL size that triggers a checkpoint, or 0 to
+             *                     use SQLite's own default of 1000 pages, so that
+             *                     steady writes cannot grow the WAL forever while
+             *                     waiting to be idle
+             * @param idleMillis   time without writes that triggers a checkpoint,
+             *                     or 0 to not trigger on idleness
+             * @return the builder, for further configuration
+             */
+            public Builder setBackgroundCheckpoints(CheckpointMode mode, long walSizeBytes,
+                                                    long idleMillis) {
+                if (walSizeBytes < 0 || idleMillis < 0) {
+                    throw new IllegalArgumentException("Checkpoint thresholds cannot be negative");
+                }
+
+                if (mode != null && walSizeBytes == 0 && idleMillis == 0) {
+                    throw new IllegalArgumentException("Background checkpoints need a size or idle threshold");
+                }
+
+                this.backgroundCheckpointMode = mode;
+                this.checkpointWalSizeBytes = walSizeBytes;
+                this.checkpointIdleMillis = idleMillis;
+
+                return this;
+            }
+
+            /**
+             * @param listener listener told the duration and frame counts of each
+             *                 background checkpoint, or null
+             * @return the builder, for further configuration
+             */
+            public Builder setCheckpointListener(CheckpointListener listener) {
+                this.checkpointListener = listener;
+
+                return this;
+            }
+
+            /**
+             * Applies typed cipher and performance settings, such as page size,
+             * KDF iterations, and cache size, instead of hand-written PRAGMAs.
+             * Cipher settings are applied right after each connection is keyed,
+             * before anything reads the database, so they also work for
+             * databases that need non-default settings just to be opened.
+             *
+             * @param profile the settings to apply, such as CipherProfile.THROUGHPUT,
+             *                or null for the SQLCipher defaults
+             * @return the builder, for further configuration
+             */
+            public Builder setCipherProfile(CipherProfile profile) {
+                this.cipherProfile = profile;
+
+                return this;
+            }
+
+            /**
+             * Phases are also marked as system trace sections, whether or not
+             * there is a listener.
+             *
+             * @param trace listener told how long each phase of each open took,
+             *              or null
+             * @return the builder, for further configuration
+             */
+            public Builder setOpenTrace(OpenTrace trace) {
+                this.openTrace = trace;
+
+                return this;
+            }
+
+            /**
+             * Records how long each query(), execSQL(), and compiled statement
+             * execution takes, in histograms keyed by SQL fingerprint. Read them
+             * via SafeHelperFactory.getQueryMetrics(). Queries are stepped
+             * through to count their rows before query() returns, so that the
+             * histogram covers running the query and not just preparing it.
+             * That scans every row of every query, even rows that the caller
+             * never reads.
+             *
+             * @param enabled true to record latency histograms; defaults to false
+             * @return the builder, for further configuration
+             */
+            public Builder setQueryMetricsEnabled(boolean enabled) {
+                this.queryMetricsEnabled = enabled;
+
+                return this;
+            }
+
+            /**
+             * Keeps a bounded log of the queries and compiled statement
+             * executions that take at least thresholdMillis, with the SQL, the
+             * types (not values) of the bound arguments, the duration, the row
+             * count, and the query plan. Read it via
+             * SafeHelperFactory.getSlowQueryLog(). As with query metrics,
+             * query() steps through the result before it returns.
+             *
+             * @param thresholdMillis how long a query or statement has to take to
+             *                        be logged, or 0 for no log
+             * @param capacity        most entries to keep; once full, new entries
+             *                        replace the oldest ones
+             * @return the builder, for further configuration
+             */
+            public Builder setSlowQueryLog(long thresholdMillis, int capacity) {
+                if (thresholdMillis < 0) {
+                    throw new IllegalArgumentException("Slow query threshold cannot be negative");
+                }
+
+                if (thresholdMillis > 0 && capacity < 1) {
+                    throw new IllegalArgumentException("Slow query log capacity must be at least 1");
+                }
+
+                this.slowQueryThresholdMillis = thresholdMillis;
+                this.slowQueryLogCapacity = capacity;
+
+                return this;
+            }
+
+            /**
+             * Enables SafeHelperFactory.submitWrite(), which hands writes to a
+             * single writer thread. That thread puts all of the writes
+             * submitted within a short window into one transaction, so that
+             * they share one commit.
+             *
+             * @param windowMillis how long to wait for more writes after the
+             *                     first one of a batch arrives; 0 to only take
+             *                     those already queued
+             * @param maxBatch     most writes per transaction, or 0 to disable
+             *                     group commit
+             * @return the builder, for further configuration
+             */
+            public Builder setGroupCommit(long windowMillis, int maxBatch) {
+                if (windowMillis < 0) {
+                    throw new IllegalArgumentException("Group commit window cannot be negative");
+                }
+
+                if (maxBatch < 0) {
+                    throw new IllegalArgumentException("Group commit batch size cannot be negative");
+                }
+
+                this.groupCommitWindowMillis = windowMillis;
+                this.groupCommitMaxBatch = maxBatch;
+
+                return this;
+            }
+
+            /**
+             * Keeps the key that SQLCipher derives from the passphrase, so that
+             * reopening the database through the same open helper, such as
+             * after Room closes it, skips key derivation and works even after
+             * the passphrase has been cleared. The key is derived again after
+             * the first open and is held in memory, zeroed when the
+             * time-to-live runs out or when the open helper is closed.
+             * <p>
+             * If the passphrase is to be cleared (the default), no copy of it
+             * is kept, so the key is derived, and checked with a second open,
+             * on the opening thread. That roughly doubles the time of the
+             * first open, and shows up as OpenPhase.KEY_DERIVATION in an
+             * OpenTrace. The Java cryptography classes that derive the key
+             * keep copies of the passphrase that cannot be zeroed, until
+             * they are garbage collected. Otherwise, it is
+             * derived on a background thread, and until it is ready, reopens
+             * use a copy of the passphrase. A raw key, from fromRawKey(), is
+             * kept as-is, as there is nothing to derive.
+             * <p>
+             * While setAutoClose() is on, the time-to-live is ignored and the
+             * key is kept until the open helper is closed, as every reopen
+             * after an idle close needs it.
+             *
+             * @param ttlMillis how long to keep the key after the first open,
+             *                  or 0 to not keep it
+             * @return the builder, for further configuration
+             */
+            public Builder setDerivedKeyCache(long ttlMillis) {
+                if (ttlMillis < 0) {
+                    throw new IllegalArgumentException("Derived key time-to-live cannot be negative");
+                }
+
+                this.derivedKeyTtlMillis = ttlMillis;
+
+                return this;
+            }
+
+            /**
+             * Closes the SQLCipher connections, and with them their page caches,
+             * once the database has gone unused for a while, and reopens them
+             * on next use. The database returned by the open helper stays
+             * usable throughout, and open cursors and transactions keep the
+             * connections open until they are closed or end. Reopens are keyed
+             * with the derived key, as with setDerivedKeyCache(), which is kept
+             * until the open helper is closed, whatever time-to-live that sets.
+             * Until there is a key to reopen with, such as while it is still
+             * being derived, the connections are left open.
+             * <p>
+             * Each reopen runs the callback's onConfigure() and onOpen()
+             * again, as a fresh open would, so that per-connection state such
+             * as Room's invalidation tracking is set up on the new connection.
+             *
+             * @param idleMillis how long the database may go unused before
+             *                   its connections are closed, or 0 to keep them
+             *                   open
+             * @return the builder, for further configuration
+             */
+            public Builder setAutoClose(long idleMillis) {
+                if (idleMillis < 0) {
+                    throw new IllegalArgumentException("Auto-close idle time cannot be negative");
+                }
+
+                this.autoCloseIdleMillis = idleMillis;
+
+                return this;
+            }
+
+            /**
+             * Releases memory held by the database when the system asks the
+             * app to trim its memory. The application context is registered
+             * for trim callbacks while the database is open. A reported level
+             * gets the policy set for the highest level that does not exceed
+             * it, so setting policies for TRIM_MEMORY_RUNNING_LOW,
+             * TRIM_MEMORY_BACKGROUND, and TRIM_MEMORY_COMPLETE also covers the
+             * levels in between. onLowMemory() counts as TRIM_MEMORY_COMPLETE.
+             * The work runs on a background thread, after any work that is
+             * using the connections.
+             *
+             * @param level  a ComponentCallbacks2.TRIM_MEMORY_* level, such as
+             *               TRIM_MEMORY_UI_HIDDEN
+             * @param policy what to release at that level and above, such as
+             *               TrimPolicy.SHRINK, or null to remove the policy
+             *               for that level
+             * @return the builder, for further configuration
+             */
+            public Builder setTrimPolicy(int level, TrimPolicy policy) {
+                if (level < 0) {
+                    throw new IllegalArgumentException("Trim level cannot be negative");
+                }
+
+                if (policy == null) {
+                    trimPolicies.remove(level);
+                } else {
+                    trimPolicies.put(level, policy);
+                }
+
+                return this;
+            }
+
+            /**
+             * @param listener listener told the level, policy, approximate
+             *                 native heap released, and duration of each
+             *                 memory trim, or null
+             * @return the builder, for further configuration
+             */
+            public Builder setTrimListener(TrimListener listener) {
+                this.trimListener = listener;
+
+                return this;
+            }
+
+            /**
+             * @param backend what to open connections with, for tests
+             * @return the builder, for further configuration
+             */
+            Builder setBackend(SqlBackend backend) {
+                if (backend == null) {
+                    throw new IllegalArgumentException("Backend cannot be null");
+                }
+
+                this.backend = backend;
+
+                return this;
+            }
+
             /**
              * @return the Options object containing your requested SQL
              */
             public Options build() {
-                return new Options(preKeySql, postKeySql, clearPassphrase);
+                return new Options(this);
             }
         }
     }
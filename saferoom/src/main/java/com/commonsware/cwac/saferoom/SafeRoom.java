@@ -0,0 +1,126 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.database.Cursor;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import java.security.SecureRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide entry points for SafeRoom.
+ */
+public final class SafeRoom {
+    private static final String MEMORY_DB = ":memory:";
+    private static FutureTask<PreloadResult> preload;
+
+    private SafeRoom() {
+        // static methods only
+    }
+
+    /**
+     * Loads the SQLCipher native library and runs a throwaway keyed database
+     * through it on the supplied Executor, so that the first real database
+     * open does not pay for either. Call this from Application.onCreate()
+     * with a background Executor. Only the first call does any work; later
+     * calls return the same Future. If the Executor rejects the preload,
+     * its RejectedExecutionException is thrown and a later call may try
+     * again.
+     *
+     * @param executor where to run the preload; must not be the main thread
+     * @return a Future for the timings of the preload
+     */
+    public static synchronized Future<PreloadResult> preload(Executor executor) {
+        if (preload == null) {
+            FutureTask<PreloadResult> task = new FutureTask<>(SafeRoom::runPreload);
+
+            // only publish the task once it is sure to run, so a rejected
+            // preload does not leave later callers with a Future that never
+            // completes
+            executor.execute(task);
+            preload = task;
+        }
+
+        return preload;
+    }
+
+    private static PreloadResult runPreload() {
+        NativeLoader.ensureLoaded();
+
+        long start = System.nanoTime();
+        byte[] key = new byte[32];
+
+        new SecureRandom().nextBytes(key);
+
+        String cipherVersion;
+
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(MEMORY_DB, key, null,
+                SQLiteDatabase.CREATE_IF_NECESSARY, null, null)) {
+            db.rawExecSQL("CREATE TABLE preload (value TEXT);");
+            db.rawExecSQL("INSERT INTO preload (value) VALUES ('x');");
+
+            try (Cursor c = db.rawQuery("PRAGMA cipher_version", null)) {
+                cipherVersion = c.moveToFirst() ? c.getString(0) : null;
+            }
+        }
+
+        return new PreloadResult(NativeLoader.loadNanos(), System.nanoTime() - start,
+                cipherVersion);
+    }
+
+    /**
+     * Timings from preload()
+     */
+    public static final class PreloadResult {
+        private final long loadNanos;
+        private final long selfTestNanos;
+        private final String cipherVersion;
+
+        PreloadResult(long loadNanos, long selfTestNanos, String cipherVersion) {
+            this.loadNanos = loadNanos;
+            this.selfTestNanos = selfTestNanos;
+            this.cipherVersion = cipherVersion;
+        }
+
+        /**
+         * @return how long System.loadLibrary() took, whether it ran as part of
+         * the preload or earlier
+         */
+        public long getLoadNanos() {
+            return loadNanos;
+        }
+
+        /**
+         * @return how long keying and using the throwaway database took
+         */
+        public long getSelfTestNanos() {
+            return selfTestNanos;
+        }
+
+        /**
+         * @return the SQLCipher version reported by the native library
+         */
+        public String getCipherVersion() {
+            return cipherVersion;
+        }
+
+        @Override
+        public String toString() {
+            return "PreloadResult{load=" + loadNanos / 1000 + "us, selfTest="
+                    + selfTestNanos / 1000 + "us, cipherVersion=" + cipherVersion + "}";
+        }
+    }
+}
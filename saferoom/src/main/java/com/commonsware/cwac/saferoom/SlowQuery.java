@@ -0,0 +1,101 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.List;
+
+/**
+ * One entry in the SlowQueryLog. It holds the SQL and the types of the
+ * bound arguments, but never their values.
+ */
+public final class SlowQuery {
+    private final String sql;
+    private final List<String> argTypes;
+    private final long durationNanos;
+    private final long rows;
+    private final long timestampMillis;
+    private final String threadName;
+    private volatile String plan;
+
+    SlowQuery(String sql, List<String> argTypes, long durationNanos, long rows) {
+        this.sql = sql;
+        this.argTypes = argTypes;
+        this.durationNanos = durationNanos;
+        this.rows = rows;
+        this.timestampMillis = System.currentTimeMillis();
+        this.threadName = Thread.currentThread().getName();
+    }
+
+    /**
+     * @return the SQL that was slow
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the SQLite type of each bound argument, in order: NULL,
+     * INTEGER, REAL, TEXT, or BLOB
+     */
+    public List<String> getArgTypes() {
+        return argTypes;
+    }
+
+    /**
+     * @return how long the query or statement took, in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return rows returned by a query, rows changed by an update or delete,
+     * 1 for an insert or simple query, or -1 if not known
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return when the query or statement finished, in System.currentTimeMillis() time
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return the name of the thread that ran the query or statement
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return the EXPLAIN QUERY PLAN output, one step per line and indented
+     * by depth; null if it has not been captured yet, or if the database had
+     * been closed for being idle by the time it would have been
+     */
+    public String getPlan() {
+        return plan;
+    }
+
+    void setPlan(String plan) {
+        this.plan = plan;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowQuery{" + durationNanos / 1_000_000 + "ms, rows=" + rows + ", args="
+                + argTypes + ", thread=" + threadName + ", sql=" + sql + ", plan="
+                + plan + "}";
+    }
+}
@@ -0,0 +1,115 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded log of the queries and statements that took longer than the
+ * threshold set with SafeHelperFactory.Options.Builder.setSlowQueryLog().
+ * Once it is full, each new entry replaces the oldest one. Get it with
+ * SafeHelperFactory.getSlowQueryLog().
+ * <p>
+ * The query plan of each entry is captured with EXPLAIN QUERY PLAN on a
+ * background thread, using a reader connection when there is one.
+ */
+public final class SlowQueryLog {
+    private static final String TAG = "SafeRoom";
+    // explains waiting to run; more than this and new ones are dropped
+    private static final int MAX_PENDING_EXPLAINS = 16;
+
+    private final Database database;
+    private final long thresholdNanos;
+    private final SlowQuery[] entries;
+    private final ThreadPoolExecutor explainer;
+    private int next;
+    private int size;
+
+    SlowQueryLog(Database database, long thresholdMillis, int capacity) {
+        this.database = database;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.entries = new SlowQuery[capacity];
+
+        explainer = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_EXPLAINS), runnable -> {
+            Thread thread = new Thread(runnable, "SafeRoom-Explain");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        explainer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the entries, oldest first
+     */
+    public synchronized List<SlowQuery> dump() {
+        List<SlowQuery> result = new ArrayList<>(size);
+        int start = (next - size + entries.length) % entries.length;
+
+        for (int i = 0; i < size; i++) {
+            result.add(entries[(start + i) % entries.length]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes all of the entries
+     */
+    public synchronized void clear() {
+        Arrays.fill(entries, null);
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the most entries that the log holds at once
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    void record(String sql, List<String> argTypes, long durationNanos, long rows) {
+        final SlowQuery entry = new SlowQuery(sql, argTypes, durationNanos, rows);
+
+        synchronized (this) {
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            size = Math.min(size + 1, entries.length);
+        }
+
+        explainer.execute(() -> {
+            try {
+                entry.setPlan(database.explain(sql));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Could not capture the query plan", e);
+            }
+        });
+    }
+
+    void close() {
+        explainer.shutdownNow();
+    }
+}
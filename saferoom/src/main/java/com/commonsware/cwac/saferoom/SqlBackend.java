@@ -0,0 +1,46 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * Opens the connections that a Database wraps. CipherBackend, the one that
+ * ships, opens SQLCipher for Android connections; others, such as one for
+ * running the wrapper on a plain JVM, go through the same Database,
+ * Statement, and Helper code.
+ */
+interface SqlBackend {
+    /**
+     * Open flags, with the same values as SQLiteDatabase's
+     */
+    int OPEN_READWRITE = 0x00000000;
+    int OPEN_READONLY = 0x00000001;
+    int CREATE_IF_NECESSARY = 0x10000000;
+
+    /**
+     * Does whatever only has to happen once, before the first open, such as
+     * loading a native library
+     */
+    void load();
+
+    /**
+     * Opens and keys a connection. Options preKeySql and postKeySql are not
+     * run here, but a CipherProfile's key settings are.
+     *
+     * @param path    the database file
+     * @param key     the passphrase or raw key; not retained
+     * @param flags   OPEN_READWRITE or OPEN_READONLY, optionally with
+     *                CREATE_IF_NECESSARY
+     * @param options the options of the factory, or null
+     * @return the open connection
+     */
+    SqlConnection open(String path, byte[] key, int flags, SafeHelperFactory.Options options);
+}
@@ -0,0 +1,126 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.CancellationSignal;
+import android.util.Pair;
+
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One open connection from a SqlBackend. The methods are those of
+ * SQLiteDatabase that the wrapper needs, and behave the same way; see
+ * there for details.
+ */
+interface SqlConnection extends AutoCloseable {
+    /**
+     * @return a statement compiled on this connection
+     */
+    SqlStatement compileStatement(String sql);
+
+    /**
+     * Runs a query on this connection, binding its arguments with their own
+     * types rather than as strings
+     *
+     * @param query  the query to run
+     * @param signal cancels the query, or null
+     * @param hold   what the cursor holds until it is closed, or null if
+     *               there is nothing to hold
+     * @return a cursor for the results
+     */
+    Cursor query(SupportSQLiteQuery query, CancellationSignal signal, CursorHold hold);
+
+    /**
+     * Runs SQL that may return rows, such as a PRAGMA, or may hold several
+     * statements, ignoring any results
+     */
+    void rawExecSQL(String sql);
+
+    void execSQL(String sql);
+
+    void execSQL(String sql, Object[] bindArgs);
+
+    long insertWithOnConflict(String table, String nullColumnHack, ContentValues values,
+                              int conflictAlgorithm);
+
+    void beginTransaction();
+
+    void beginTransactionNonExclusive();
+
+    void beginTransactionWithListener(SQLiteTransactionListener listener);
+
+    void beginTransactionWithListenerNonExclusive(SQLiteTransactionListener listener);
+
+    void endTransaction();
+
+    void setTransactionSuccessful();
+
+    boolean inTransaction();
+
+    boolean isDbLockedByCurrentThread();
+
+    boolean yieldIfContendedSafely();
+
+    boolean yieldIfContendedSafely(long sleepAfterYieldDelay);
+
+    int getVersion();
+
+    void setVersion(int version);
+
+    long getMaximumSize();
+
+    long setMaximumSize(long numBytes);
+
+    long getPageSize();
+
+    void setPageSize(long numBytes);
+
+    boolean isReadOnly();
+
+    boolean isOpen();
+
+    boolean needUpgrade(int newVersion);
+
+    String getPath();
+
+    void setLocale(Locale locale);
+
+    void setMaxSqlCacheSize(int cacheSize);
+
+    void setForeignKeyConstraintsEnabled(boolean enable);
+
+    boolean enableWriteAheadLogging();
+
+    void disableWriteAheadLogging();
+
+    boolean isWriteAheadLoggingEnabled();
+
+    List<Pair<String, String>> getAttachedDbs();
+
+    boolean isDatabaseIntegrityOk();
+
+    /**
+     * Changes the key that the database is encrypted with
+     *
+     * @throws UnsupportedOperationException if the backend does not encrypt
+     */
+    void changePassword(byte[] password);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,193 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL to its shape, so that statements that differ only in their
+ * literals, parameter names, whitespace, comments, or the length of an IN
+ * list are counted together.
+ */
+final class SqlFingerprint {
+    private static final Pattern IN_LIST =
+            Pattern.compile("\\bIN\\(\\?(?:, \\?)*\\)", Pattern.CASE_INSENSITIVE);
+
+    private SqlFingerprint() {
+        // static methods only
+    }
+
+    static String of(String sql) {
+        int length = sql.length();
+        StringBuilder result = new StringBuilder(length);
+        boolean pendingSpace = false;
+        int i = 0;
+
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                i = skipLineComment(sql, i);
+                pendingSpace = true;
+                continue;
+            }
+
+            if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                i = skipBlockComment(sql, i);
+                pendingSpace = true;
+                continue;
+            }
+
+            if (result.length() > 0 && needsSpace(result.charAt(result.length() - 1), c,
+                    pendingSpace)) {
+                result.append(' ');
+            }
+
+            pendingSpace = false;
+
+            boolean tokenStart = i == 0 || !isIdentifierChar(sql.charAt(i - 1));
+
+            if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                result.append('?');
+            } else if ((c == 'x' || c == 'X') && tokenStart && i + 1 < length
+                    && sql.charAt(i + 1) == '\'') {
+                i = skipQuoted(sql, i + 1, '\'');
+                result.append('?');
+            } else if (c == '"' || c == '`') {
+                int end = skipQuoted(sql, i, c);
+
+                result.append(sql, i, end);
+                i = end;
+            } else if (c == '[') {
+                int end = sql.indexOf(']', i);
+
+                end = (end < 0) ? length : end + 1;
+                result.append(sql, i, end);
+                i = end;
+            } else if (tokenStart && (isDigit(c)
+                    || (c == '.' && i + 1 < length && isDigit(sql.charAt(i + 1))))) {
+                i = skipNumber(sql, i);
+                result.append('?');
+            } else if (c == '?' || ((c == ':' || c == '@' || c == '$') && i + 1 < length
+                    && isIdentifierChar(sql.charAt(i + 1)))) {
+                i++;
+
+                while (i < length && isIdentifierChar(sql.charAt(i))) {
+                    i++;
+                }
+
+                result.append('?');
+            } else {
+                result.append(c);
+                i++;
+            }
+        }
+
+        while (result.length() > 0 && result.charAt(result.length() - 1) == ';') {
+            result.setLength(result.length() - 1);
+        }
+
+        return IN_LIST.matcher(result).replaceAll("IN(?)");
+    }
+
+    private static int skipLineComment(String sql, int i) {
+        int end = sql.indexOf('\n', i);
+
+        return (end < 0) ? sql.length() : end + 1;
+    }
+
+    private static int skipBlockComment(String sql, int i) {
+        int end = sql.indexOf("*/", i + 2);
+
+        return (end < 0) ? sql.length() : end + 2;
+    }
+
+    /**
+     * @return the index just past the closing quote, treating a doubled
+     * quote as an escaped one
+     */
+    private static int skipQuoted(String sql, int i, char quote) {
+        int length = sql.length();
+
+        i++;
+
+        while (i < length) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+
+        return length;
+    }
+
+    private static int skipNumber(String sql, int i) {
+        int length = sql.length();
+
+        if (sql.startsWith("0x", i) || sql.startsWith("0X", i)) {
+            i += 2;
+        }
+
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            if (isIdentifierChar(c) || c == '.') {
+                i++;
+            } else if ((c == '+' || c == '-') && i > 0
+                    && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E')) {
+                // exponent sign, as in 1e-5
+                i++;
+            } else {
+                break;
+            }
+        }
+
+        return i;
+    }
+
+    /**
+     * Spacing around punctuation is canonical, so that "IN(?,?)" and
+     * "IN ( ?, ? )" come out the same; elsewhere, any run of whitespace
+     * becomes one space.
+     */
+    private static boolean needsSpace(char previous, char next, boolean hadSpace) {
+        if (previous == ',') {
+            return true;
+        }
+
+        if (next == '(' || next == ')' || next == ',' || next == ';' || previous == '(') {
+            return false;
+        }
+
+        return previous == ')' || hadSpace;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,154 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of the SQL that Database generates for
+ * update() and delete(), keyed by the shape of the call: table, conflict
+ * algorithm, columns in order, and where clause. Paired with a
+ * StatementCache, a repeated update() or delete() then only binds and steps.
+ */
+final class SqlTemplates {
+    private static final String[] CONFLICT_VALUES = new String[]
+            {"", " OR ROLLBACK ", " OR ABORT ", " OR FAIL ", " OR IGNORE ", " OR REPLACE "};
+    private static final int MAX_SIZE = 64;
+    private static final int DELETE = -1;
+
+    private final LinkedHashMap<Key, String> templates =
+            new LinkedHashMap<Key, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            };
+
+    synchronized String update(String table, int conflictAlgorithm, String[] columns,
+                               String whereClause) {
+        Key key = new Key(table, conflictAlgorithm, columns, whereClause);
+        String result = templates.get(key);
+
+        if (result == null) {
+            // taken from SQLiteDatabase class.
+            StringBuilder sql = new StringBuilder(120);
+            sql.append("UPDATE ");
+            sql.append(CONFLICT_VALUES[conflictAlgorithm]);
+            sql.append(table);
+            sql.append(" SET ");
+
+            for (int i = 0; i < columns.length; i++) {
+                sql.append((i > 0) ? "," : "");
+                sql.append(columns[i]);
+                sql.append("=?");
+            }
+            if (whereClause != null && !whereClause.isEmpty()) {
+                sql.append(" WHERE ");
+                sql.append(whereClause);
+            }
+
+            result = sql.toString();
+            templates.put(key, result);
+        }
+
+        return result;
+    }
+
+    synchronized String delete(String table, String whereClause) {
+        Key key = new Key(table, DELETE, null, whereClause);
+        String result = templates.get(key);
+
+        if (result == null) {
+            result = "DELETE FROM " + table
+                    + ((whereClause == null || whereClause.isEmpty()) ? "" : " WHERE " + whereClause);
+            templates.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds an INSERT for insertAll(), which caches the statements itself
+     * for the length of the batch.
+     */
+    static String insert(String table, int conflictAlgorithm, String[] columns) {
+        StringBuilder sql = new StringBuilder(120);
+
+        sql.append("INSERT ");
+        sql.append(CONFLICT_VALUES[conflictAlgorithm]);
+        sql.append(" INTO ");
+        sql.append(table);
+        sql.append('(');
+
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? "," : "");
+            sql.append(columns[i]);
+        }
+
+        sql.append(") VALUES (");
+
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? ",?" : "?");
+        }
+
+        return sql.append(')').toString();
+    }
+
+    private static final class Key {
+        private final String table;
+        private final int conflictAlgorithm;
+        private final String[] columns;
+        private final String whereClause;
+        private final int hash;
+
+        Key(String table, int conflictAlgorithm, String[] columns, String whereClause) {
+            this.table = table;
+            this.conflictAlgorithm = conflictAlgorithm;
+            this.columns = columns;
+            this.whereClause = whereClause;
+
+            int h = table.hashCode();
+
+            h = 31 * h + conflictAlgorithm;
+            h = 31 * h + Arrays.hashCode(columns);
+            h = 31 * h + ((whereClause == null) ? 0 : whereClause.hashCode());
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+
+            return hash == other.hash
+                    && conflictAlgorithm == other.conflictAlgorithm
+                    && table.equals(other.table)
+                    && Arrays.equals(columns, other.columns)
+                    && ((whereClause == null) ? other.whereClause == null
+                    : whereClause.equals(other.whereClause));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
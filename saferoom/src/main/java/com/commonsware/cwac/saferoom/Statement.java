@@ -11,20 +11,131 @@
 
 package com.commonsware.cwac.saferoom;
 
+import androidx.annotation.NonNull;
 import androidx.sqlite.db.SupportSQLiteStatement;
 
-import net.zetetic.database.sqlcipher.SQLiteStatement;
+import java.util.Arrays;
 
 /**
- * SupportSQLiteStatement implementation that wraps SQLCipher for Android's
- * SQLiteStatement
+ * SupportSQLiteStatement implementation that wraps a statement compiled on
+ * the backend's connection. When the database closes its connection for
+ * being idle, this keeps its bindings and compiles itself again on the new
+ * connection the next time that it runs.
  */
 class Statement extends Program implements SupportSQLiteStatement {
-    private final SQLiteStatement safeStatement;
+    private SqlStatement safeStatement;
+    private final String sql;
+    private final StatementCache cache;
+    private final Database database;
+    private final LatencyHistogram histogram;
+    private final SlowQueryLog slowQueryLog;
+    private final BindTypes bindTypes;
+    private final AutoCloser autoCloser;
+    private int generation;
+    private Object[] args;
+    private int argCount;
+    private boolean closed;
 
-    Statement(SQLiteStatement safeStatement) {
+    Statement(SqlStatement safeStatement, String sql, StatementCache cache,
+              Database database, LatencyHistogram histogram) {
         super(safeStatement);
         this.safeStatement = safeStatement;
+        this.sql = sql;
+        this.cache = cache;
+        this.database = database;
+        this.histogram = histogram;
+        this.slowQueryLog = database.getSlowQueryLog();
+        this.bindTypes = (slowQueryLog == null) ? null : new BindTypes();
+        this.autoCloser = database.getAutoCloser();
+
+        // compileStatement() holds a pin, so the generation is that of the
+        // connection the statement was compiled on
+        if (autoCloser != null) {
+            generation = autoCloser.generation();
+            args = new Object[8];
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindNull(int index) {
+        super.bindNull(index);
+        remember(index, null);
+
+        if (bindTypes != null) {
+            bindTypes.bindNull(index);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindLong(int index, long value) {
+        super.bindLong(index, value);
+        remember(index, value);
+
+        if (bindTypes != null) {
+            bindTypes.bindLong(index, value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindDouble(int index, double value) {
+        super.bindDouble(index, value);
+        remember(index, value);
+
+        if (bindTypes != null) {
+            bindTypes.bindDouble(index, value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindString(int index, @NonNull String value) {
+        super.bindString(index, value);
+        remember(index, value);
+
+        if (bindTypes != null) {
+            bindTypes.bindString(index, value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindBlob(int index, @NonNull byte[] value) {
+        super.bindBlob(index, value);
+        remember(index, value);
+
+        if (bindTypes != null) {
+            bindTypes.bindBlob(index, value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearBindings() {
+        super.clearBindings();
+
+        if (args != null) {
+            Arrays.fill(args, null);
+            argCount = 0;
+        }
+
+        if (bindTypes != null) {
+            bindTypes.clearBindings();
+        }
     }
 
     /**
@@ -32,7 +143,17 @@ class Statement extends Program implements SupportSQLiteStatement {
      */
     @Override
     public void execute() {
-        safeStatement.execute();
+        SqlStatement target = pin();
+
+        try {
+            long start = startTiming();
+
+            target.execute();
+            record(start, -1);
+            database.onWrite();
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -40,7 +161,19 @@ class Statement extends Program implements SupportSQLiteStatement {
      */
     @Override
     public int executeUpdateDelete() {
-        return safeStatement.executeUpdateDelete();
+        SqlStatement target = pin();
+
+        try {
+            long start = startTiming();
+            int result = target.executeUpdateDelete();
+
+            record(start, result);
+            database.onWrite();
+
+            return result;
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -48,7 +181,19 @@ class Statement extends Program implements SupportSQLiteStatement {
      */
     @Override
     public long executeInsert() {
-        return safeStatement.executeInsert();
+        SqlStatement target = pin();
+
+        try {
+            long start = startTiming();
+            long result = target.executeInsert();
+
+            record(start, (result == -1) ? 0 : 1);
+            database.onWrite();
+
+            return result;
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -56,7 +201,18 @@ class Statement extends Program implements SupportSQLiteStatement {
      */
     @Override
     public long simpleQueryForLong() {
-        return safeStatement.simpleQueryForLong();
+        SqlStatement target = pin();
+
+        try {
+            long start = startTiming();
+            long result = target.simpleQueryForLong();
+
+            record(start, 1);
+
+            return result;
+        } finally {
+            unpin();
+        }
     }
 
     /**
@@ -64,6 +220,149 @@ class Statement extends Program implements SupportSQLiteStatement {
      */
     @Override
     public String simpleQueryForString() {
-        return safeStatement.simpleQueryForString();
+        SqlStatement target = pin();
+
+        try {
+            long start = startTiming();
+            String result = target.simpleQueryForString();
+
+            record(start, 1);
+
+            return result;
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * @return the statement to run, compiled again first if the database
+     * reopened its connection since this was compiled; each call must be
+     * paired with unpin()
+     */
+    private SqlStatement pin() {
+        if (autoCloser == null) {
+            return safeStatement;
+        }
+
+        SqlConnection db = autoCloser.pin();
+        int current = autoCloser.generation();
+
+        if (current != generation) {
+            SqlStatement fresh;
+
+            try {
+                fresh = db.compileStatement(sql);
+            } catch (RuntimeException e) {
+                autoCloser.unpin();
+                throw e;
+            }
+
+            // the old statement belongs to a closed connection, so it is
+            // not worth caching
+            safeStatement.close();
+            safeStatement = fresh;
+            setDelegate(fresh);
+            generation = current;
+
+            for (int i = 0; i < argCount; i++) {
+                Database.bindValue(fresh, i + 1, args[i]);
+            }
+        }
+
+        return safeStatement;
+    }
+
+    private void unpin() {
+        if (autoCloser != null) {
+            autoCloser.unpin();
+        }
+    }
+
+    /**
+     * Keeps a binding to replay if this has to be compiled again. Unbound
+     * parameters are NULL, so a null entry is replayed as bindNull().
+     */
+    private void remember(int index, Object value) {
+        if (args == null) {
+            return;
+        }
+
+        if (index > args.length) {
+            args = Arrays.copyOf(args, Math.max(index, args.length * 2));
+        }
+
+        args[index - 1] = value;
+        argCount = Math.max(argCount, index);
+    }
+
+    private long startTiming() {
+        return (histogram == null && slowQueryLog == null) ? 0 : System.nanoTime();
+    }
+
+    private void record(long start, long rows) {
+        if (histogram == null && slowQueryLog == null) {
+            return;
+        }
+
+        long durationNanos = System.nanoTime() - start;
+
+        if (histogram != null) {
+            histogram.record(durationNanos);
+        }
+
+        if (slowQueryLog != null && slowQueryLog.isSlow(durationNanos)) {
+            slowQueryLog.record(sql, bindTypes.snapshot(), durationNanos, rows);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * NOTE: if this statement came from a StatementCache, it goes back to
+     * that cache with its bindings cleared, so do not use it after closing it
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (cache != null && releaseToCache()) {
+            return;
+        }
+
+        super.close();
+    }
+
+    /**
+     * @return true if the cache took the statement, false if the caller
+     * needs to close it
+     */
+    private boolean releaseToCache() {
+        if (autoCloser == null) {
+            safeStatement.clearBindings();
+
+            return cache.release(sql, safeStatement);
+        }
+
+        // only a statement compiled on the current connection is worth
+        // caching, and the pin keeps that connection open while it goes in
+        if (autoCloser.pinIfOpen() == null) {
+            return false;
+        }
+
+        try {
+            if (generation != autoCloser.generation()) {
+                return false;
+            }
+
+            safeStatement.clearBindings();
+
+            return cache.release(sql, safeStatement);
+        } finally {
+            autoCloser.unpin();
+        }
     }
 }
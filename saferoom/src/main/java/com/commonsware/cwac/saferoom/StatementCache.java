@@ -0,0 +1,167 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of compiled statements, keyed by their SQL, for
+ * one database connection. A statement is checked out of the cache while a
+ * Statement wraps it and goes back in, with its bindings cleared, when that
+ * Statement is closed. Use SafeHelperFactory.getStatementCache() to get the
+ * cache for a database, so you can read its counters.
+ * <p>
+ * SQLCipher's connections already keep an LRU of native prepared
+ * statements, sized by setMaxSqlCacheSize(), and a SQLiteStatement does not
+ * hold on to one between executions. What this cache saves is the rest of
+ * compileStatement(): taking a connection from the pool to look the SQL up
+ * and read its parameter and column metadata, and allocating the
+ * SQLiteStatement and its wrapper. StatementCacheTest.benchmarkCompile()
+ * measures that difference. So that executing a cached statement does
+ * not prepare it again, Database raises the connection's cache to at
+ * least the size of this one.
+ */
+public final class StatementCache {
+    private final LinkedHashMap<String, SqlStatement> idle = new LinkedHashMap<>();
+    private final int maxSize;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private boolean closed;
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the number of compileStatement() calls satisfied from the cache
+     */
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of compileStatement() calls that had to compile
+     */
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of statements closed to keep the cache within its bounds
+     */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of idle statements currently held by the cache
+     */
+    public synchronized int size() {
+        return idle.size();
+    }
+
+    /**
+     * @return the maximum number of idle statements held by the cache
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Closes all idle statements. Statements that are checked out are
+     * unaffected and will be cached again when they are closed.
+     */
+    public void evictAll() {
+        closeAll(drain(false));
+    }
+
+    /**
+     * Checks a statement out of the cache.
+     *
+     * @param sql the SQL of the statement
+     * @return the cached statement, or null if the caller needs to compile one
+     */
+    synchronized SqlStatement acquire(String sql) {
+        SqlStatement result = idle.remove(sql);
+
+        if (result == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a statement to the cache. The caller has already cleared its
+     * bindings.
+     *
+     * @param sql       the SQL of the statement
+     * @param statement the statement itself
+     * @return true if the cache took the statement, false if the caller
+     * needs to close it
+     */
+    boolean release(String sql, SqlStatement statement) {
+        SqlStatement evicted = null;
+
+        synchronized (this) {
+            if (closed || idle.containsKey(sql)) {
+                return false;
+            }
+
+            idle.put(sql, statement);
+
+            if (idle.size() > maxSize) {
+                Iterator<Map.Entry<String, SqlStatement>> eldest = idle.entrySet().iterator();
+
+                evicted = eldest.next().getValue();
+                eldest.remove();
+                evictionCount++;
+            }
+        }
+
+        if (evicted != null) {
+            evicted.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Closes all idle statements and stops caching new ones, for use when
+     * the database itself is closed.
+     */
+    void close() {
+        closeAll(drain(true));
+    }
+
+    private synchronized List<SqlStatement> drain(boolean close) {
+        List<SqlStatement> result = new ArrayList<>(idle.values());
+
+        idle.clear();
+        closed = closed || close;
+
+        return result;
+    }
+
+    private static void closeAll(List<SqlStatement> statements) {
+        for (SqlStatement statement : statements) {
+            statement.close();
+        }
+    }
+}
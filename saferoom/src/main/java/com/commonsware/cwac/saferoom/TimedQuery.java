@@ -0,0 +1,55 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteProgram;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+/**
+ * SupportSQLiteQuery that carries its own timeout, overriding the one from
+ * SafeHelperFactory.Options. Create these via SafeHelperFactory.withTimeout().
+ */
+class TimedQuery implements SupportSQLiteQuery {
+    private final SupportSQLiteQuery delegate;
+    final long timeoutMillis;
+
+    TimedQuery(SupportSQLiteQuery delegate, long timeoutMillis) {
+        this.delegate = delegate;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public String getSql() {
+        return delegate.getSql();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(@NonNull SupportSQLiteProgram statement) {
+        delegate.bindTo(statement);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getArgCount() {
+        return delegate.getArgCount();
+    }
+}
@@ -0,0 +1,34 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * Receives the outcome of each memory trim. Register one via
+ * SafeHelperFactory.Options.Builder.setTrimListener(). It is called on the
+ * trim thread, so keep it short.
+ */
+public interface TrimListener {
+    /**
+     * @param level         the ComponentCallbacks2 trim level that was
+     *                      reported
+     * @param policy        the policy that was applied for that level
+     * @param nativeHeapDelta roughly how much the trim released: how much
+     *                        the process's native heap shrank while the
+     *                        policy was applied, or 0 if it grew. This is
+     *                        not a SQLite figure; allocations on other
+     *                        threads skew it, and memory that SQLite frees
+     *                        may stay with the allocator rather than
+     *                        leaving the heap.
+     * @param durationNanos   how long applying the policy took
+     */
+    void onTrim(int level, TrimPolicy policy, long nativeHeapDelta, long durationNanos);
+}
@@ -0,0 +1,155 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+/**
+ * What to release when the system asks the app to trim its memory, as
+ * reported to ComponentCallbacks2.onTrimMemory(). Map trim levels to
+ * policies via SafeHelperFactory.Options.Builder.setTrimPolicy(). Use
+ * builder() to create one, or start from one of the presets.
+ */
+public final class TrimPolicy {
+    /**
+     * Has SQLite release the memory that it holds but is not using, such as
+     * unused pages of the page caches. Nothing has to be reloaded later.
+     */
+    public static final TrimPolicy SHRINK = builder()
+            .setShrinkMemory(true)
+            .build();
+
+    /**
+     * As SHRINK, but also closes the idle statements held by the statement
+     * cache, which are compiled again on next use.
+     */
+    public static final TrimPolicy EVICT = SHRINK.toBuilder()
+            .setEvictStatements(true)
+            .build();
+
+    /**
+     * As EVICT, but also cuts each connection's page cache down to 256 KiB
+     * for a minute, after which the configured size returns. Pages that are
+     * dropped have to be read and decrypted again.
+     */
+    public static final TrimPolicy MINIMAL = EVICT.toBuilder()
+            .setCacheSize(-256, 60000)
+            .build();
+
+    final boolean shrinkMemory;
+    final boolean evictStatements;
+    final Integer cacheSize;
+    final long restoreAfterMillis;
+
+    private TrimPolicy(Builder builder) {
+        shrinkMemory = builder.shrinkMemory;
+        evictStatements = builder.evictStatements;
+        cacheSize = builder.cacheSize;
+        restoreAfterMillis = builder.restoreAfterMillis;
+    }
+
+    /**
+     * @return a Builder to use to create a TrimPolicy
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a Builder starting from the settings of this policy, such as
+     * to adjust one of the presets
+     */
+    public Builder toBuilder() {
+        Builder result = new Builder();
+
+        result.shrinkMemory = shrinkMemory;
+        result.evictStatements = evictStatements;
+        result.cacheSize = cacheSize;
+        result.restoreAfterMillis = restoreAfterMillis;
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "TrimPolicy{shrinkMemory=" + shrinkMemory + ", evictStatements="
+                + evictStatements + ", cacheSize=" + cacheSize + ", restoreAfterMillis="
+                + restoreAfterMillis + "}";
+    }
+
+    /**
+     * A builder of TrimPolicy objects. Each setter validates its value and
+     * throws IllegalArgumentException if it is out of range.
+     */
+    public static class Builder {
+        private boolean shrinkMemory;
+        private boolean evictStatements;
+        private Integer cacheSize;
+        private long restoreAfterMillis;
+
+        private Builder() {
+            // use the builder() method on TrimPolicy
+        }
+
+        /**
+         * @param enabled true to run PRAGMA shrink_memory on each connection
+         * @return the builder, for further configuration
+         */
+        public Builder setShrinkMemory(boolean enabled) {
+            this.shrinkMemory = enabled;
+
+            return this;
+        }
+
+        /**
+         * @param enabled true to close the idle statements held by the
+         *                statement cache
+         * @return the builder, for further configuration
+         */
+        public Builder setEvictStatements(boolean enabled) {
+            this.evictStatements = enabled;
+
+            return this;
+        }
+
+        /**
+         * Lowers cache_size on each connection, which drops the unused pages
+         * over the new size right away. The size in effect before the first
+         * trim comes back once restoreAfterMillis pass without another trim
+         * that lowers it.
+         *
+         * @param cacheSize          cache_size: a positive number of pages, or
+         *                           a negative number of KiB
+         * @param restoreAfterMillis how long to keep the lower size; at least 1
+         * @return the builder, for further configuration
+         */
+        public Builder setCacheSize(int cacheSize, long restoreAfterMillis) {
+            if (cacheSize == 0) {
+                throw new IllegalArgumentException("Cache size cannot be zero");
+            }
+
+            if (restoreAfterMillis < 1) {
+                throw new IllegalArgumentException("Cache size restore delay must be at least 1 ms");
+            }
+
+            this.cacheSize = cacheSize;
+            this.restoreAfterMillis = restoreAfterMillis;
+
+            return this;
+        }
+
+        /**
+         * @return the TrimPolicy with your requested settings
+         */
+        public TrimPolicy build() {
+            return new TrimPolicy(this);
+        }
+    }
+}
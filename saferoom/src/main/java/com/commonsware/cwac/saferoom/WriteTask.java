@@ -0,0 +1,36 @@
+/***
+ Copyright (c) 2017-2018 CommonsWare, LLC
+ Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ use this file except in compliance with the License. You may obtain	a copy
+ of the License at http://www.apache.org/licenses/LICENSE-2.0. Unless required
+ by applicable law or agreed to in writing, software distributed under the
+ License is distributed on an "AS IS" BASIS,	WITHOUT	WARRANTIES OR CONDITIONS
+ OF ANY KIND, either express or implied. See the License for the specific
+ language governing permissions and limitations under the License.
+ */
+
+package com.commonsware.cwac.saferoom;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * A write to run through the group-commit writer, via
+ * SafeHelperFactory.submitWrite(). It runs on the writer thread, inside a
+ * transaction shared with other writes. If another write in the same batch
+ * throws, the batch is rolled back and this write runs again, so it should
+ * only touch the database. It should not swallow exceptions from nested
+ * transactions of its own, such as those of Room DAO methods: a nested
+ * transaction that is not marked successful rolls back the whole batch, so
+ * the write then fails with an IllegalStateException and the rest of the
+ * batch runs again without it. It must not wait on the Future of another
+ * write.
+ *
+ * @param <T> the type of the result
+ */
+public interface WriteTask<T> {
+    /**
+     * @param db the database to write to
+     * @return the result to hand to the caller's Future
+     */
+    T write(SupportSQLiteDatabase db);
+}
@@ -0,0 +1,27 @@
+package com.commonsware.cwac.saferoom;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * SqlBackend over the framework's SQLite, for running the on-device suites
+ * under Robolectric. Keys are ignored, so nothing is encrypted, and the
+ * cipher profile's key-time settings do not apply.
+ */
+final class HostBackend implements SqlBackend {
+    static final HostBackend INSTANCE = new HostBackend();
+
+    private HostBackend() {
+        // use INSTANCE
+    }
+
+    @Override
+    public void load() {
+        // Robolectric loads its SQLite on first use
+    }
+
+    @Override
+    public SqlConnection open(String path, byte[] key, int flags,
+                              SafeHelperFactory.Options options) {
+        return new HostConnection(SQLiteDatabase.openDatabase(path, null, flags));
+    }
+}
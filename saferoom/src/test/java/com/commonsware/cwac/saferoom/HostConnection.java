@@ -0,0 +1,218 @@
+package com.commonsware.cwac.saferoom;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.CancellationSignal;
+import android.util.Pair;
+
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.List;
+import java.util.Locale;
+
+final class HostConnection implements SqlConnection {
+    private static final String[] NO_SELECTION_ARGS = new String[0];
+    private final SQLiteDatabase db;
+
+    HostConnection(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public SqlStatement compileStatement(String sql) {
+        return new HostStatement(db.compileStatement(sql));
+    }
+
+    @Override
+    public Cursor query(final SupportSQLiteQuery supportQuery, CancellationSignal signal,
+                        final CursorHold hold) {
+        return db.rawQueryWithFactory(
+                (db, masterQuery, editTable, query) -> {
+                    supportQuery.bindTo(new HostProgram(query));
+
+                    if (hold == null) {
+                        return new SQLiteCursor(masterQuery, editTable, query);
+                    }
+
+                    return new HostPinnedCursor(masterQuery, editTable, query, hold);
+                }, supportQuery.getSql(), NO_SELECTION_ARGS, null, signal);
+    }
+
+    @Override
+    public void rawExecSQL(String sql) {
+        // the framework's execSQL() rejects statements that return rows,
+        // such as most PRAGMAs
+        try (Cursor c = db.rawQuery(sql, null)) {
+            c.moveToFirst();
+        }
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        db.execSQL(sql);
+    }
+
+    @Override
+    public void execSQL(String sql, Object[] bindArgs) {
+        db.execSQL(sql, bindArgs);
+    }
+
+    @Override
+    public long insertWithOnConflict(String table, String nullColumnHack, ContentValues values,
+                                     int conflictAlgorithm) {
+        return db.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
+    }
+
+    @Override
+    public void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    @Override
+    public void beginTransactionNonExclusive() {
+        db.beginTransactionNonExclusive();
+    }
+
+    @Override
+    public void beginTransactionWithListener(SQLiteTransactionListener listener) {
+        db.beginTransactionWithListener(listener);
+    }
+
+    @Override
+    public void beginTransactionWithListenerNonExclusive(SQLiteTransactionListener listener) {
+        db.beginTransactionWithListenerNonExclusive(listener);
+    }
+
+    @Override
+    public void endTransaction() {
+        db.endTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    @Override
+    public boolean inTransaction() {
+        return db.inTransaction();
+    }
+
+    @Override
+    public boolean isDbLockedByCurrentThread() {
+        return db.isDbLockedByCurrentThread();
+    }
+
+    @Override
+    public boolean yieldIfContendedSafely() {
+        return db.yieldIfContendedSafely();
+    }
+
+    @Override
+    public boolean yieldIfContendedSafely(long sleepAfterYieldDelay) {
+        return db.yieldIfContendedSafely(sleepAfterYieldDelay);
+    }
+
+    @Override
+    public int getVersion() {
+        return db.getVersion();
+    }
+
+    @Override
+    public void setVersion(int version) {
+        db.setVersion(version);
+    }
+
+    @Override
+    public long getMaximumSize() {
+        return db.getMaximumSize();
+    }
+
+    @Override
+    public long setMaximumSize(long numBytes) {
+        return db.setMaximumSize(numBytes);
+    }
+
+    @Override
+    public long getPageSize() {
+        return db.getPageSize();
+    }
+
+    @Override
+    public void setPageSize(long numBytes) {
+        db.setPageSize(numBytes);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return db.isReadOnly();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    @Override
+    public boolean needUpgrade(int newVersion) {
+        return db.needUpgrade(newVersion);
+    }
+
+    @Override
+    public String getPath() {
+        return db.getPath();
+    }
+
+    @Override
+    public void setLocale(Locale locale) {
+        db.setLocale(locale);
+    }
+
+    @Override
+    public void setMaxSqlCacheSize(int cacheSize) {
+        db.setMaxSqlCacheSize(cacheSize);
+    }
+
+    @Override
+    public void setForeignKeyConstraintsEnabled(boolean enable) {
+        db.setForeignKeyConstraintsEnabled(enable);
+    }
+
+    @Override
+    public boolean enableWriteAheadLogging() {
+        return db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void disableWriteAheadLogging() {
+        db.disableWriteAheadLogging();
+    }
+
+    @Override
+    public boolean isWriteAheadLoggingEnabled() {
+        return db.isWriteAheadLoggingEnabled();
+    }
+
+    @Override
+    public List<Pair<String, String>> getAttachedDbs() {
+        return db.getAttachedDbs();
+    }
+
+    @Override
+    public boolean isDatabaseIntegrityOk() {
+        return db.isDatabaseIntegrityOk();
+    }
+
+    @Override
+    public void changePassword(byte[] password) {
+        throw new UnsupportedOperationException("The host backend does not encrypt");
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+}
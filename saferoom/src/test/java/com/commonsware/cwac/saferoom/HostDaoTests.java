@@ -0,0 +1,25 @@
+package com.commonsware.cwac.saferoom;
+
+import com.commonsware.cwac.saferoom.test.room.simple.DaoTests;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs the Room DaoTests on the host, against the framework's SQLite under
+ * Robolectric
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HostDaoTests extends DaoTests {
+    @BeforeClass
+    public static void useHostBackend() {
+        SafeHelperFactory.Options.defaultBackend = HostBackend.INSTANCE;
+    }
+
+    @AfterClass
+    public static void useCipherBackend() {
+        SafeHelperFactory.Options.defaultBackend = CipherBackend.INSTANCE;
+    }
+}
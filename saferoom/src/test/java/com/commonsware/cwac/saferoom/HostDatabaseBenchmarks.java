@@ -0,0 +1,123 @@
+package com.commonsware.cwac.saferoom;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the query and statement paths of Database, Statement
+ * and StatementCache, run against HostBackend. These need Robolectric, so
+ * they only run in-process, through SafeRoomBenchmarksTest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class HostDatabaseBenchmarks {
+    private static final String DB_NAME = "benchmarks.db";
+    private static final int ROWS = 1000;
+    private static final SimpleSQLiteQuery BY_ID =
+            new SimpleSQLiteQuery("SELECT name FROM foo WHERE id = ?", new Object[]{ROWS / 2});
+    private static final SimpleSQLiteQuery COUNT =
+            new SimpleSQLiteQuery("SELECT count(*) FROM foo WHERE n > ?", new Object[]{0});
+    private static final String UPDATE = "UPDATE foo SET n = n + 1 WHERE id = ?";
+
+    @Param({"0", "32"})
+    public int statementCacheSize;
+
+    private SupportSQLiteOpenHelper helper;
+    private SupportSQLiteDatabase db;
+
+    @Setup(Level.Trial)
+    public void open() {
+        Context context = ApplicationProvider.getApplicationContext();
+
+        context.deleteDatabase(DB_NAME);
+
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setStatementCacheSize(statementCacheSize)
+                .setBackend(HostBackend.INSTANCE)
+                .build();
+
+        helper = new SafeHelperFactory(new byte[0], options).create(context, DB_NAME,
+                new SupportSQLiteOpenHelper.Callback(1) {
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                        db.execSQL("CREATE TABLE foo (id INTEGER PRIMARY KEY, name TEXT, n INTEGER)");
+                    }
+
+                    @Override
+                    public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion,
+                                          int newVersion) {
+                        // only one version
+                    }
+                });
+        db = helper.getWritableDatabase();
+        db.beginTransaction();
+
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                db.execSQL("INSERT INTO foo (id, name, n) VALUES (?, ?, ?)",
+                        new Object[]{i, "row " + i, i});
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        helper.close();
+        ApplicationProvider.getApplicationContext().deleteDatabase(DB_NAME);
+    }
+
+    @Benchmark
+    public String queryById() {
+        try (Cursor c = db.query(BY_ID)) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
+    @Benchmark
+    public long queryLong() {
+        return SafeHelperFactory.queryLong(db, COUNT);
+    }
+
+    @Benchmark
+    public void execSQL() {
+        db.execSQL(UPDATE, new Object[]{ROWS / 2});
+    }
+
+    @Benchmark
+    public int compileAndExecute() throws Exception {
+        try (SupportSQLiteStatement statement = db.compileStatement(UPDATE)) {
+            statement.bindLong(1, ROWS / 2);
+
+            return statement.executeUpdateDelete();
+        }
+    }
+}
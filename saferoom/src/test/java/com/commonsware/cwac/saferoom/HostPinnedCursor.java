@@ -0,0 +1,32 @@
+package com.commonsware.cwac.saferoom;
+
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * PinnedCursor for the framework's SQLiteCursor
+ */
+final class HostPinnedCursor extends SQLiteCursor {
+    private final CursorHold hold;
+    private boolean held = true;
+
+    HostPinnedCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+                     CursorHold hold) {
+        super(driver, editTable, query);
+        this.hold = hold;
+        hold.acquire();
+    }
+
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            if (held) {
+                held = false;
+                hold.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.commonsware.cwac.saferoom;
+
+import android.database.sqlite.SQLiteProgram;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteProgram;
+
+class HostProgram implements SupportSQLiteProgram {
+    private final SQLiteProgram delegate;
+
+    HostProgram(SQLiteProgram delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void bindNull(int index) {
+        delegate.bindNull(index);
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+        delegate.bindLong(index, value);
+    }
+
+    @Override
+    public void bindDouble(int index, double value) {
+        delegate.bindDouble(index, value);
+    }
+
+    @Override
+    public void bindString(int index, @NonNull String value) {
+        delegate.bindString(index, value);
+    }
+
+    @Override
+    public void bindBlob(int index, @NonNull byte[] value) {
+        delegate.bindBlob(index, value);
+    }
+
+    @Override
+    public void clearBindings() {
+        delegate.clearBindings();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,25 @@
+package com.commonsware.cwac.saferoom;
+
+import com.commonsware.cwac.saferoom.test.SafeSimpleTests;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs SafeSimpleTests on the host, against the framework's SQLite under
+ * Robolectric, so the wrapper can be checked without a device
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HostSafeSimpleTests extends SafeSimpleTests {
+    @BeforeClass
+    public static void useHostBackend() {
+        SafeHelperFactory.Options.defaultBackend = HostBackend.INSTANCE;
+    }
+
+    @AfterClass
+    public static void useCipherBackend() {
+        SafeHelperFactory.Options.defaultBackend = CipherBackend.INSTANCE;
+    }
+}
@@ -0,0 +1,37 @@
+package com.commonsware.cwac.saferoom;
+
+import android.database.sqlite.SQLiteStatement;
+
+final class HostStatement extends HostProgram implements SqlStatement {
+    private final SQLiteStatement delegate;
+
+    HostStatement(SQLiteStatement delegate) {
+        super(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute() {
+        delegate.execute();
+    }
+
+    @Override
+    public int executeUpdateDelete() {
+        return delegate.executeUpdateDelete();
+    }
+
+    @Override
+    public long executeInsert() {
+        return delegate.executeInsert();
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+        return delegate.simpleQueryForLong();
+    }
+
+    @Override
+    public String simpleQueryForString() {
+        return delegate.simpleQueryForString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.commonsware.cwac.saferoom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    private static final int THREADS = 4;
+    private static final int RECORDS = 10_000;
+
+    @Test
+    public void bucketsByPowerOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketFor(0));
+        assertEquals(0, LatencyHistogram.bucketFor(1023));
+        assertEquals(1, LatencyHistogram.bucketFor(1024));
+        assertEquals(2, LatencyHistogram.bucketFor(4095));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long bound = QueryStats.getBucketUpperBoundNanos(bucket);
+
+            assertEquals(bucket, LatencyHistogram.bucketFor(bound - 1));
+            assertEquals(bucket + 1, LatencyHistogram.bucketFor(bound));
+        }
+    }
+
+    @Test
+    public void metricsGroupByFingerprint() {
+        QueryMetrics metrics = new QueryMetrics();
+        LatencyHistogram histogram = metrics.histogramFor("SELECT * FROM foo WHERE id = 1");
+
+        assertSame(histogram, metrics.histogramFor("SELECT * FROM foo WHERE id = 2"));
+        histogram.record(500);
+        histogram.record(5000);
+
+        QueryStats stats = metrics.snapshot().get(0);
+
+        assertEquals("SELECT * FROM foo WHERE id = ?", stats.getFingerprint());
+        assertEquals(2, stats.getCount());
+        assertEquals(5500, stats.getTotalNanos());
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().get(0).getCount());
+    }
+
+    @Test
+    public void concurrentRecordingCountsEverything() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram("SELECT ?");
+        Thread[] threads = new Thread[THREADS];
+
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < RECORDS; j++) {
+                    histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) THREADS * RECORDS, histogram.snapshot().getCount());
+    }
+}
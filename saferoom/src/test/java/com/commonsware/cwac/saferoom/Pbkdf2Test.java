@@ -0,0 +1,28 @@
+package com.commonsware.cwac.saferoom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+public class Pbkdf2Test {
+    private static final String PASSPHRASE = "cufflink powerboat mundane vagrancy ragweed waving";
+    private static final byte[] SALT = "0123456789abcdef".getBytes(UTF_8);
+
+    @Test
+    public void matchesTheJdk() throws Exception {
+        // the host JDK has the SecretKeyFactory algorithms that Android lacks
+        for (String digest : new String[]{"SHA1", "SHA256", "SHA512"}) {
+            byte[] expected = SecretKeyFactory.getInstance("PBKDF2WithHmac" + digest)
+                    .generateSecret(new PBEKeySpec(PASSPHRASE.toCharArray(), SALT, 1000, 256))
+                    .getEncoded();
+            byte[] actual = DerivedKeyCache.pbkdf2("Hmac" + digest, PASSPHRASE.getBytes(UTF_8),
+                    SALT, 1000, 32);
+
+            assertArrayEquals(digest, expected, actual);
+        }
+    }
+}
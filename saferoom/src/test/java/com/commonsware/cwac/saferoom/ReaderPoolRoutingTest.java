@@ -0,0 +1,78 @@
+package com.commonsware.cwac.saferoom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReaderPoolRoutingTest {
+    @Test
+    public void readsGoToReaders() {
+        assertTrue(ReaderPool.canRead("SELECT * FROM foo"));
+        assertTrue(ReaderPool.canRead("  select count(*) from foo"));
+        assertTrue(ReaderPool.canRead("-- the count\n/* of rows */ SELECT COUNT(*) FROM foo"));
+        assertTrue(ReaderPool.canRead("VALUES (1), (2)"));
+        assertTrue(ReaderPool.canRead("EXPLAIN QUERY PLAN SELECT * FROM foo"));
+        assertTrue(ReaderPool.canRead("explain select 1"));
+    }
+
+    @Test
+    public void everythingElseGoesToTheWriter() {
+        assertFalse(ReaderPool.canRead("PRAGMA cache_size"));
+        assertFalse(ReaderPool.canRead("PRAGMA wal_checkpoint(TRUNCATE)"));
+        assertFalse(ReaderPool.canRead("INSERT INTO foo (bar) VALUES (1) RETURNING bar"));
+        assertFalse(ReaderPool.canRead("DELETE FROM foo RETURNING *"));
+        assertFalse(ReaderPool.canRead("WITH t AS (SELECT 1) SELECT * FROM t"));
+        assertFalse(ReaderPool.canRead("EXPLAIN QUERY PLAN DELETE FROM foo"));
+        assertFalse(ReaderPool.canRead("SELECTED"));
+        assertFalse(ReaderPool.canRead("/* SELECT */"));
+        assertFalse(ReaderPool.canRead(""));
+    }
+
+    @Test
+    public void acquirePrefersFreeReaders() {
+        Context context = ApplicationProvider.getApplicationContext();
+        File file = context.getDatabasePath("readers.db");
+
+        file.getParentFile().mkdirs();
+        SQLiteDatabase.openOrCreateDatabase(file, null).close();
+
+        SafeHelperFactory.Options options = SafeHelperFactory.Options.builder()
+                .setReaderPoolSize(2)
+                .setBackend(HostBackend.INSTANCE)
+                .build();
+        ReaderPool pool = new ReaderPool(file.getAbsolutePath(), new byte[0], options);
+
+        try {
+            int held = pool.acquire();
+
+            // however the round-robin turns, the free reader comes next
+            for (int i = 0; i < 4; i++) {
+                int other = pool.acquire();
+
+                assertNotEquals(held, other);
+                pool.release(other);
+            }
+
+            // a cursor's hold keeps the reader busy after the call lets go
+            pool.retain(held);
+            pool.release(held);
+            assertNotEquals(held, pool.acquire());
+        } finally {
+            pool.close();
+            context.deleteDatabase("readers.db");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.commonsware.cwac.saferoom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the pure-Java hot paths of the wrapper. These only run
+ * through SafeRoomBenchmarksTest, with -Psaferoom.benchmark=true; see
+ * HostDatabaseBenchmarks for the database paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SafeRoomBenchmarks {
+    private static final int CONFLICT_REPLACE = 5;
+    private static final String[] COLUMNS = {"bar", "goo", "id"};
+    private static final String SQL =
+            "SELECT * FROM foo WHERE bar = 'baz' AND id IN (1, 2, 3) -- by id";
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final LatencyHistogram histogram = new LatencyHistogram("SELECT ?");
+        final QueryMetrics metrics = new QueryMetrics();
+        final SqlTemplates templates = new SqlTemplates();
+    }
+
+    @State(Scope.Thread)
+    public static class Latency {
+        long nanos;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended(Shared shared, Latency latency) {
+        shared.histogram.record(latency.nanos++ & 0xFFFFF);
+    }
+
+    @Benchmark
+    public LatencyHistogram histogramForSql(Shared shared) {
+        return shared.metrics.histogramFor(SQL);
+    }
+
+    @Benchmark
+    public String fingerprint() {
+        return SqlFingerprint.of(SQL);
+    }
+
+    @Benchmark
+    public String updateTemplate(Shared shared) {
+        return shared.templates.update("foo", CONFLICT_REPLACE, COLUMNS, "id = ?");
+    }
+
+    @Benchmark
+    public String insertTemplate() {
+        return SqlTemplates.insert("foo", CONFLICT_REPLACE, COLUMNS);
+    }
+}
@@ -0,0 +1,32 @@
+package com.commonsware.cwac.saferoom;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs the JMH benchmarks, but only when asked, as in:
+ * ./gradlew :saferoom:testDebugUnitTest -Psaferoom.benchmark=true
+ * --tests '*SafeRoomBenchmarksTest'
+ * <p>
+ * The benchmarks run in this JVM, not in a fork, as HostDatabaseBenchmarks
+ * needs the Robolectric environment that this test sets up.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SafeRoomBenchmarksTest {
+    @Test
+    public void benchmarks() throws RunnerException {
+        assumeTrue(Boolean.getBoolean("saferoom.benchmark"));
+
+        new Runner(new OptionsBuilder()
+                .include(SafeRoomBenchmarks.class.getName())
+                .include(HostDatabaseBenchmarks.class.getName())
+                .forks(0)
+                .build()).run();
+    }
+}
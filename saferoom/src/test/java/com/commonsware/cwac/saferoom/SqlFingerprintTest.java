@@ -0,0 +1,30 @@
+package com.commonsware.cwac.saferoom;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SqlFingerprintTest {
+    @Test
+    public void replacesLiteralsAndParameters() {
+        assertEquals("SELECT * FROM foo WHERE bar = ? AND goo = ? AND baz = ?",
+                SqlFingerprint.of("SELECT * FROM foo WHERE bar = 12 AND goo = 'it''s' AND baz = :baz"));
+        assertEquals("SELECT ? FROM foo WHERE payload = ?",
+                SqlFingerprint.of("SELECT 1.5e-3 FROM foo WHERE payload = x'00FF'"));
+    }
+
+    @Test
+    public void keepsQuotedIdentifiers() {
+        assertEquals("SELECT \"col 1\", [col 2], `col3` FROM t1",
+                SqlFingerprint.of("SELECT \"col 1\", [col 2], `col3` FROM t1"));
+    }
+
+    @Test
+    public void normalizesWhitespaceAndComments() {
+        assertEquals("SELECT a, b FROM foo WHERE c IN(?)",
+                SqlFingerprint.of("SELECT a,b -- columns\n  FROM /* the table */ foo\n"
+                        + "WHERE c IN ( ?, ?, ? );;"));
+        assertEquals(SqlFingerprint.of("SELECT * FROM foo WHERE c IN(1,2)"),
+                SqlFingerprint.of("SELECT * FROM foo WHERE c in (?, ?, ?, ?)"));
+    }
+}
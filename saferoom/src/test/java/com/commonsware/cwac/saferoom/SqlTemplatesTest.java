@@ -0,0 +1,32 @@
+package com.commonsware.cwac.saferoom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class SqlTemplatesTest {
+    private static final int CONFLICT_REPLACE = 5;
+
+    @Test
+    public void reusesSqlForTheSameShape() {
+        SqlTemplates templates = new SqlTemplates();
+        String first = templates.update("foo", CONFLICT_REPLACE, new String[]{"bar", "goo"}, "id = ?");
+
+        assertEquals("UPDATE  OR REPLACE foo SET bar=?,goo=? WHERE id = ?", first);
+        assertSame(first, templates.update("foo", CONFLICT_REPLACE,
+                new String[]{"bar", "goo"}, "id = ?"));
+        assertEquals("UPDATE foo SET goo=?,bar=?",
+                templates.update("foo", 0, new String[]{"goo", "bar"}, null));
+        assertEquals("DELETE FROM foo WHERE id = ?", templates.delete("foo", "id = ?"));
+        assertEquals("DELETE FROM foo", templates.delete("foo", ""));
+    }
+
+    @Test
+    public void buildsInserts() {
+        assertEquals("INSERT  OR REPLACE  INTO foo(bar,goo) VALUES (?,?)",
+                SqlTemplates.insert("foo", CONFLICT_REPLACE, new String[]{"bar", "goo"}));
+        assertEquals("INSERT  INTO foo(bar) VALUES (?)",
+                SqlTemplates.insert("foo", 0, new String[]{"bar"}));
+    }
+}